@@ -0,0 +1,607 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * This class Benchmark is used for measuring the speed of the index. It builds
+ * random documents in memory, so the result does not depend on the disk.
+ *
+ * <pre>
+ * java Benchmark -b index [-n documents] [-w words per document]
+ * java Benchmark -b tokenizer [-n documents] [-w words per document]
+ * java Benchmark -b ingest [-n documents] [-w words per document]
+ * java Benchmark -b update [-n documents] [-w words per document]
+ * </pre>
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class Benchmark {
+
+	/**
+	 * The numbers of threads to measure.
+	 */
+	private static final int[] THREADS = { 1, 4, 16, 64 };
+
+	/**
+	 * The number of different words in the random documents.
+	 */
+	private static final int VOCABULARY = 50000;
+
+	/**
+	 * The number of times every benchmark is run, the best time is shown.
+	 */
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Run the benchmark given by -b.
+	 *
+	 * @param args
+	 *            from command-line.
+	 */
+	public static void main(String[] args) throws Exception {
+		ArgumentParser parser = new ArgumentParser(args);
+		int documents = parser.hasValue("-n") ? Integer.parseInt(parser
+				.getValue("-n")) : 5000;
+		int words = parser.hasValue("-w") ? Integer.parseInt(parser
+				.getValue("-w")) : 200;
+		String name = parser.hasValue("-b") ? parser.getValue("-b") : "index";
+
+		String[][] data = randomDocuments(documents, words);
+
+		if (name.equals("index")) {
+			benchmarkIndex(data);
+		} else if (name.equals("tokenizer")) {
+			benchmarkTokenizer(data);
+		} else if (name.equals("ingest")) {
+			benchmarkIngest(data);
+		} else if (name.equals("update")) {
+			benchmarkUpdate(data);
+		} else {
+			System.err.println("Unknown benchmark: " + name);
+		}
+	}
+
+	/**
+	 * Make random documents, the words are chosen with a skewed distribution
+	 * like a real text.
+	 *
+	 * @param documents
+	 *            is the number of documents.
+	 * @param words
+	 *            is the number of words in every document.
+	 * @return the words of every document.
+	 */
+	private static String[][] randomDocuments(int documents, int words) {
+		Random random = new Random(212);
+		String[] vocabulary = new String[VOCABULARY];
+		for (int i = 0; i < VOCABULARY; i++) {
+			char[] word = new char[3 + random.nextInt(8)];
+			for (int j = 0; j < word.length; j++) {
+				word[j] = (char) ('a' + random.nextInt(26));
+			}
+			vocabulary[i] = new String(word);
+		}
+
+		String[][] data = new String[documents][words];
+		for (int d = 0; d < documents; d++) {
+			for (int w = 0; w < words; w++) {
+				// the square makes small indexes much more common.
+				double r = random.nextDouble();
+				data[d][w] = vocabulary[(int) (r * r * VOCABULARY)];
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Measure how fast InvertedIndex adds the documents with different
+	 * numbers of threads. "merge" fills a DocumentIndexBuilder for every
+	 * document and calls addDocument like FileReader does, "direct" calls
+	 * indexData of the shared index for every word. Every merged document is
+	 * published as its own segment without a lock of the index, so the
+	 * threads do not wait for each other and no lock striping is needed.
+	 * "locked" is the baseline, the index before the segments, which merges
+	 * one document at a time under the single write lock of the index.
+	 *
+	 * @param data
+	 *            is the words of every document.
+	 */
+	private static void benchmarkIndex(String[][] data) throws Exception {
+		System.out.printf("%-8s %8s %14s %14s%n", "mode", "threads",
+				"docs/s", "words/s");
+
+		for (String mode : new String[] { "locked", "merge", "direct" }) {
+			for (int threads : THREADS) {
+				long best = Long.MAX_VALUE;
+				for (int round = 0; round < ROUNDS; round++) {
+					long time;
+					if (mode.equals("locked")) {
+						time = runLockedIndexing(new LockedIndex(), data,
+								threads);
+					} else {
+						InvertedIndex index = new InvertedIndex(
+								new DocumentTable());
+						time = runIndexing(index, data, threads,
+								mode.equals("merge"));
+						index.shutdown();
+					}
+					best = Math.min(best, time);
+				}
+				double seconds = best / 1e9;
+				System.out.printf("%-8s %8d %14.0f %14.0f%n", mode, threads,
+						data.length / seconds, (double) data.length
+								* data[0].length / seconds);
+			}
+		}
+	}
+
+	/**
+	 * Measure how fast the lines of a text are split into words. "split" is
+	 * the old way of FileReader, splitting by a regular expression and
+	 * removing the symbols of every word twice, "tokenizer" uses one
+	 * Tokenizer for all the lines.
+	 *
+	 * @param data
+	 *            is the words of every document, one line for every document.
+	 */
+	private static void benchmarkTokenizer(String[][] data) {
+		String[] lines = makeLines(data);
+
+		System.out.printf("%-10s %14s %14s%n", "mode", "tokens/s", "Mchars/s");
+		long chars = 0;
+		for (String line : lines) {
+			chars += line.length();
+		}
+		for (String mode : new String[] { "split", "tokenizer" }) {
+			long best = Long.MAX_VALUE;
+			long tokens = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				tokens = mode.equals("split") ? splitLines(lines)
+						: tokenizeLines(lines);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			double seconds = best / 1e9;
+			System.out.printf("%-10s %14.0f %14.1f%n", mode, tokens / seconds,
+					chars / 1e6 / seconds);
+		}
+	}
+
+	/**
+	 * Measure how fast FileReader reads the words of text files, as lines or
+	 * as mapped bytes, into a DocumentIndexBuilder for every file. The index
+	 * is left out, so only the reading is measured. Every document is written
+	 * into a file of a temporary directory first, so the files are in the
+	 * cache of the system when they are read.
+	 *
+	 * @param data
+	 *            is the words of every document, one file for every document.
+	 */
+	private static void benchmarkIngest(String[][] data) throws Exception {
+		String[] lines = makeLines(data);
+		File directory = File.createTempFile("benchmark", "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Unable to create " + directory);
+		}
+		List<File> files = new ArrayList<File>();
+		long bytes = 0;
+		try {
+			for (int d = 0; d < lines.length; d++) {
+				File file = new File(directory, "doc" + d + ".txt");
+				writeFile(file, lines[d]);
+				files.add(file);
+				bytes += file.length();
+			}
+
+			System.out.printf("%-8s %8s %14s %14s%n", "mode", "threads",
+					"docs/s", "MB/s");
+			for (String mode : new String[] { "lines", "mapped" }) {
+				for (int threads : THREADS) {
+					long best = Long.MAX_VALUE;
+					for (int round = 0; round < ROUNDS; round++) {
+						best = Math.min(best, runReading(files, threads,
+								mode.equals("mapped")));
+					}
+					double seconds = best / 1e9;
+					System.out.printf("%-8s %8d %14.0f %14.1f%n", mode,
+							threads, files.size() / seconds, bytes / 1e6
+									/ seconds);
+				}
+			}
+		} finally {
+			for (File file : files) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Measure how long the index takes to follow some changed files with an
+	 * IndexUpdater, compared with checking the whole directory again and
+	 * with building the whole index again. Only the changed paths are given
+	 * to the updater, like the watcher does.
+	 *
+	 * @param data
+	 *            is the words of every document, one file for every document.
+	 */
+	private static void benchmarkUpdate(String[][] data) throws Exception {
+		String[] lines = makeLines(data);
+		File directory = File.createTempFile("benchmark", "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Unable to create " + directory);
+		}
+		List<File> files = new ArrayList<File>();
+		WorkQueue workQueue = new WorkQueue(4);
+		try {
+			for (int d = 0; d < lines.length; d++) {
+				File file = new File(directory, "doc" + d + ".txt");
+				writeFile(file, lines[d]);
+				files.add(file);
+			}
+			InvertedIndex index = new InvertedIndex();
+			IndexUpdater updater = new IndexUpdater(index, workQueue,
+					new IndexManifest());
+			long start = System.nanoTime();
+			updater.update(directory);
+			long rebuild = System.nanoTime() - start;
+
+			System.out.printf("%-8s %14s %14s %14s%n", "changed", "paths ms",
+					"rescan ms", "rebuild ms");
+			for (int changed = 1; changed <= files.size(); changed *= 10) {
+				Collection<String> paths = changeFiles(files, lines, changed,
+						0);
+				start = System.nanoTime();
+				updater.update(paths);
+				long byPaths = System.nanoTime() - start;
+
+				changeFiles(files, lines, changed, 1);
+				start = System.nanoTime();
+				updater.update(directory);
+				long rescan = System.nanoTime() - start;
+
+				System.out.printf("%-8d %14.2f %14.2f %14.2f%n", changed,
+						byPaths / 1e6, rescan / 1e6, rebuild / 1e6);
+			}
+		} finally {
+			workQueue.shutdown();
+			for (File file : files) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Write the text of other documents into some of the files.
+	 *
+	 * @param files
+	 *            is all the files.
+	 * @param lines
+	 *            is the line of every document.
+	 * @param count
+	 *            is the number of files changed.
+	 * @param shift
+	 *            makes the next change different from the last one.
+	 * @return the absolute paths of the changed files.
+	 */
+	private static Collection<String> changeFiles(List<File> files,
+			String[] lines, int count, int shift) throws IOException {
+		List<String> paths = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			int d = i * (files.size() / count);
+			File file = files.get(d);
+			writeFile(file, lines[(d + count + shift) % lines.length]);
+			// the time of the file system may be too coarse to see the change.
+			file.setLastModified(file.lastModified() + 2000 * (shift + 1));
+			paths.add(file.getAbsolutePath());
+		}
+		return paths;
+	}
+
+	/**
+	 * Write one document into a file.
+	 *
+	 * @param file
+	 *            is the file.
+	 * @param line
+	 *            is the line of the document.
+	 */
+	private static void writeFile(File file, String line) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"utf-8");
+		try {
+			// a line of about ten words, like a real text.
+			String[] words = line.split(" ");
+			for (int w = 0; w < words.length; w++) {
+				writer.write(words[w]);
+				writer.write(w % 10 == 9 ? "\n" : " ");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Read all the files with some threads.
+	 *
+	 * @param files
+	 *            is the files to read.
+	 * @param threads
+	 *            is the number of threads.
+	 * @param mapped
+	 *            is true if the files are read as mapped bytes.
+	 * @return the time used in nanoseconds.
+	 */
+	private static long runReading(final List<File> files, final int threads,
+			final boolean mapped) throws InterruptedException {
+
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int first = i;
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int d = first; d < files.size(); d += threads) {
+						try {
+							FileReader.readDocument(files.get(d),
+									new DocumentIndexBuilder(d), mapped);
+						} catch (IOException e) {
+							System.err.println("Error: " + e.getMessage());
+						}
+					}
+				}
+			};
+		}
+
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Make one line of text for every document. Some words are capitalized
+	 * or have punctuation, like a real text.
+	 *
+	 * @param data
+	 *            is the words of every document.
+	 * @return the line of every document.
+	 */
+	private static String[] makeLines(String[][] data) {
+		Random random = new Random(212);
+		String[] lines = new String[data.length];
+		String[] marks = { ",", ".", "'s", "!", "--" };
+		for (int d = 0; d < data.length; d++) {
+			StringBuilder line = new StringBuilder();
+			for (int w = 0; w < data[d].length; w++) {
+				String word = data[d][w];
+				if (random.nextInt(8) == 0) {
+					word = Character.toUpperCase(word.charAt(0))
+							+ word.substring(1);
+				}
+				if (random.nextInt(6) == 0) {
+					word += marks[random.nextInt(marks.length)];
+				}
+				line.append(word).append(' ');
+			}
+			lines[d] = line.toString();
+		}
+		return lines;
+	}
+
+	/**
+	 * Split the lines in the old way of FileReader.
+	 *
+	 * @param lines
+	 *            is the lines of text.
+	 * @return the number of words, so the work is not thrown away.
+	 */
+	private static long splitLines(String[] lines) {
+		long tokens = 0;
+		for (String line : lines) {
+			for (String word : line.split(" ")) {
+				if (word.toLowerCase().replaceAll("\\_", "")
+						.replaceAll("\\W", "").isEmpty()) {
+					continue;
+				}
+				String normalized = word.toLowerCase().replaceAll("\\_", "")
+						.replaceAll("\\W", "");
+				tokens += normalized.length() > 0 ? 1 : 0;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Split the lines by a Tokenizer.
+	 *
+	 * @param lines
+	 *            is the lines of text.
+	 * @return the number of words, so the work is not thrown away.
+	 */
+	private static long tokenizeLines(String[] lines) {
+		long tokens = 0;
+		Tokenizer tokenizer = new Tokenizer();
+		for (String line : lines) {
+			tokenizer.reset(line);
+			while (tokenizer.next()) {
+				tokens += tokenizer.word().length() > 0 ? 1 : 0;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Add all the documents to the index with some threads.
+	 *
+	 * @param index
+	 *            is the index to fill.
+	 * @param data
+	 *            is the words of every document.
+	 * @param threads
+	 *            is the number of threads.
+	 * @param merge
+	 *            is true if every document is built by a DocumentIndexBuilder
+	 *            first.
+	 * @return the time used in nanoseconds.
+	 */
+	private static long runIndexing(final InvertedIndex index,
+			final String[][] data, final int threads, final boolean merge)
+			throws InterruptedException {
+
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int first = i;
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					DocumentTable table = index.getDocumentTable();
+					for (int d = first; d < data.length; d += threads) {
+						int docId = table.getId("doc" + d);
+						if (merge) {
+							DocumentIndexBuilder builder = new DocumentIndexBuilder(
+									docId);
+							for (int w = 0; w < data[d].length; w++) {
+								builder.add(data[d][w], w);
+							}
+							index.addDocument(builder);
+						} else {
+							for (int w = 0; w < data[d].length; w++) {
+								index.indexData(docId, data[d][w], w);
+							}
+						}
+					}
+				}
+			};
+		}
+
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Add all the documents to the baseline index with some threads. Every
+	 * thread reads a document into its own map first, like the local index
+	 * of a thread, then merges it into the shared one.
+	 *
+	 * @param index
+	 *            is the index to fill.
+	 * @param data
+	 *            is the words of every document.
+	 * @param threads
+	 *            is the number of threads.
+	 * @return the time used in nanoseconds.
+	 */
+	private static long runLockedIndexing(final LockedIndex index,
+			final String[][] data, final int threads)
+			throws InterruptedException {
+
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int first = i;
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int d = first; d < data.length; d += threads) {
+						String path = "doc" + d;
+						TreeMap<String, TreeMap<String, LinkedList<Integer>>> local = new TreeMap<String, TreeMap<String, LinkedList<Integer>>>();
+						for (int w = 0; w < data[d].length; w++) {
+							TreeMap<String, LinkedList<Integer>> paths = local
+									.get(data[d][w]);
+							if (paths == null) {
+								paths = new TreeMap<String, LinkedList<Integer>>();
+								paths.put(path, new LinkedList<Integer>());
+								local.put(data[d][w], paths);
+							}
+							paths.get(path).add(w + 1);
+						}
+						index.addAll(local, path);
+					}
+				}
+			};
+		}
+
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * This class LockedIndex is the index before the segments, it is only
+	 * kept as the baseline of the benchmark. Every word has a TreeMap of the
+	 * paths to their positions, and the words of a document are merged under
+	 * one write lock of the whole index, like addAllIndex did.
+	 *
+	 */
+	private static class LockedIndex {
+
+		/**
+		 * The positions of every word in every document.
+		 */
+		private TreeMap<String, TreeMap<String, LinkedList<Integer>>> words;
+
+		/**
+		 * The lock of the whole index.
+		 */
+		private MultiReadersLock lock;
+
+		/**
+		 * Constructor of LockedIndex.
+		 */
+		public LockedIndex() {
+			words = new TreeMap<String, TreeMap<String, LinkedList<Integer>>>();
+			lock = new MultiReadersLock();
+		}
+
+		/**
+		 * Merge the words of one document under the write lock.
+		 *
+		 * @param local
+		 *            is the words of the document read by one thread.
+		 * @param path
+		 *            is the path of the document.
+		 */
+		public void addAll(
+				TreeMap<String, TreeMap<String, LinkedList<Integer>>> local,
+				String path) {
+			lock.acquireWriteLock();
+			for (Map.Entry<String, TreeMap<String, LinkedList<Integer>>> entry : local
+					.entrySet()) {
+				TreeMap<String, LinkedList<Integer>> paths = words.get(entry
+						.getKey());
+				if (paths == null) {
+					words.put(entry.getKey(), entry.getValue());
+				} else {
+					paths.put(path, entry.getValue().get(path));
+				}
+			}
+			lock.releaseWriteLock();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * This class ConjunctionCursor joins cursors by AND, a document matches if it
+ * matches all of them. The cursor with the fewest documents leads and the
+ * others only skip to its documents, so a rare word AND a common word costs
+ * about as much as the rare word alone.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class ConjunctionCursor extends DocCursor {
+
+	/**
+	 * The cursors to join, the cheapest first.
+	 */
+	private DocCursor[] cursors;
+
+	/**
+	 * The current document.
+	 */
+	private int doc;
+
+	/**
+	 * The constructor of ConjunctionCursor.
+	 *
+	 * @param list
+	 *            is the cursors to join, they must not be moved yet.
+	 */
+	public ConjunctionCursor(ArrayList<? extends DocCursor> list) {
+		ArrayList<DocCursor> sorted = new ArrayList<DocCursor>(list);
+		Collections.sort(sorted, new Comparator<DocCursor>() {
+			public int compare(DocCursor a, DocCursor b) {
+				return a.cost() < b.cost() ? -1 : a.cost() == b.cost() ? 0 : 1;
+			}
+		});
+		cursors = sorted.toArray(new DocCursor[sorted.size()]);
+		doc = -1;
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int nextDoc() {
+		return doNext(cursors[0].nextDoc());
+	}
+
+	@Override
+	public int advance(int target) {
+		return doNext(cursors[0].advance(target));
+	}
+
+	/**
+	 * Move all the other cursors to the document of the leading cursor, if
+	 * one of them passes it, the leading cursor skips to that document.
+	 *
+	 * @param target
+	 *            is the document of the leading cursor.
+	 * @return the new current document.
+	 */
+	private int doNext(int target) {
+		int i = 1;
+		while (target != NO_MORE_DOCS && i < cursors.length) {
+			int other = cursors[i].docId();
+			if (other < target) {
+				other = cursors[i].advance(target);
+			}
+			if (other > target) {
+				target = cursors[0].advance(other);
+				i = 1;
+			} else {
+				i++;
+			}
+		}
+		doc = target;
+		return doc;
+	}
+
+	@Override
+	public int frequency() {
+		int frequency = 0;
+		for (DocCursor cursor : cursors) {
+			frequency += cursor.frequency();
+		}
+		return frequency;
+	}
+
+	@Override
+	public int firstPosition() {
+		int position = Integer.MAX_VALUE;
+		for (DocCursor cursor : cursors) {
+			position = Math.min(position, cursor.firstPosition());
+		}
+		return position;
+	}
+
+	@Override
+	public long cost() {
+		return cursors[0].cost();
+	}
+}
@@ -38,12 +38,8 @@ public class DirectoryParser {
 	 */
 	public static void getAllTxt(File dir, List<File> fileList) {
 
-		if (!dir.isDirectory()) {
-			System.out.println("Please input valid path");
-		} else {
-			TxtFileFilter filter = new TxtFileFilter();
-			File[] files = dir.listFiles(filter);
-
+		File[] files = listTxt(dir);
+		if (files != null) {
 			for (File file : files) {
 				if (file.isDirectory()) {
 					getAllTxt(file, fileList);
@@ -55,6 +51,37 @@ public class DirectoryParser {
 		}
 	}
 
+	/**
+	 * This method listTxt lists only one directory, the sub-directories are
+	 * not opened, so the caller could walk them in its own way.
+	 * 
+	 * @param dir
+	 *            directory contains text files and sub-directory.
+	 * @return the text files and sub-directories, or null if dir is not a
+	 *         directory which could be read.
+	 */
+	public static File[] listTxt(File dir) {
+
+		if (!dir.isDirectory()) {
+			System.out.println("Please input valid path");
+			return null;
+		}
+		return dir.listFiles(new TxtFileFilter());
+	}
+
+	/**
+	 * This method isTxtFile checks one file without listing its directory.
+	 * 
+	 * @param file
+	 *            is a file which is not a directory.
+	 * @return true if the file is a text file which should be indexed.
+	 */
+	public static boolean isTxtFile(File file) {
+
+		return file.getName().toLowerCase().endsWith(".txt")
+				&& !file.isHidden();
+	}
+
 	/**
 	 * This class TxtFileFileter is designed to filter text files.
 	 * 
@@ -64,8 +91,7 @@ public class DirectoryParser {
 		public boolean accept(File file) {
 			if (file.isDirectory()) {
 				return true;
-			} else if (file.getName().toLowerCase().endsWith(".txt")
-					&& !file.isHidden()) {
+			} else if (isTxtFile(file)) {
 				return true;
 			} else
 				return false;
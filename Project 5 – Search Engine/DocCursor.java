@@ -0,0 +1,90 @@
+/**
+ * This class DocCursor walks through the documents matching a part of a
+ * query in increasing order of document ID. The cursors of the words are
+ * joined by the cursors of AND, OR and NOT, so a query is answered by walking
+ * its cursor once.
+ *
+ * A new cursor is before its first document, nextDoc or advance must be
+ * called first.
+ *
+ * The cursors of words could also read the positions of the current document
+ * one by one, which is used by phrases and NEAR. The positions are only read
+ * when they are asked for, so a document skipped by an intersection never has
+ * its positions read.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public abstract class DocCursor {
+
+	/**
+	 * The document ID after the last document.
+	 */
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	/**
+	 * The position after the last position of a document.
+	 */
+	public static final int NO_MORE_POSITIONS = Integer.MAX_VALUE;
+
+	/**
+	 * @return the current document ID, -1 before the first document, or
+	 *         NO_MORE_DOCS after the last document.
+	 */
+	public abstract int docId();
+
+	/**
+	 * Move to the next document.
+	 *
+	 * @return the new document ID, or NO_MORE_DOCS.
+	 */
+	public abstract int nextDoc();
+
+	/**
+	 * Move to the first document whose ID is not less than target. It is
+	 * only called with a target bigger than the current document ID.
+	 *
+	 * @param target
+	 *            is the document ID to find.
+	 * @return the new document ID, or NO_MORE_DOCS.
+	 */
+	public int advance(int target) {
+		int doc = nextDoc();
+		while (doc < target) {
+			doc = nextDoc();
+		}
+		return doc;
+	}
+
+	/**
+	 * @return how many times the matching words appear in the current
+	 *         document.
+	 */
+	public abstract int frequency();
+
+	/**
+	 * @return the first position of the matching words in the current
+	 *         document.
+	 */
+	public abstract int firstPosition();
+
+	/**
+	 * @return the estimated number of documents of this cursor, the cheapest
+	 *         cursor leads an intersection.
+	 */
+	public abstract long cost();
+
+	/**
+	 * Read the next position of the current document, the positions are in
+	 * increasing order and counted from 1. A cursor of a phrase gives the
+	 * position of the first word of every match.
+	 *
+	 * @return the next position, or NO_MORE_POSITIONS.
+	 * @throws UnsupportedOperationException
+	 *             if this cursor has no positions.
+	 */
+	public int nextPosition() {
+		throw new UnsupportedOperationException(getClass().getName()
+				+ " has no positions.");
+	}
+}
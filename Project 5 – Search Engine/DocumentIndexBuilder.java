@@ -0,0 +1,229 @@
+import java.util.Arrays;
+
+/**
+ * This class DocumentIndexBuilder is used for collecting the words of one
+ * document in one thread before they are added to the globe index. It is not
+ * thread-safe and has no lock at all, because it is only used by the worker
+ * reading the document.
+ *
+ * The words are kept in an open-addressing hash table, every word has a
+ * growable int array of positions, so adding a word which is already there
+ * does not create any object. When the document is finished, the words are
+ * sorted once and given to the globe index as one IndexSegment.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class DocumentIndexBuilder {
+
+	/**
+	 * The first capacity of the hash table, it must be a power of two.
+	 */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The ID of the document.
+	 */
+	private int docId;
+
+	/**
+	 * The words of the hash table, null if the slot is empty.
+	 */
+	private String[] keys;
+
+	/**
+	 * The positions of the word in every slot. The array may be longer than
+	 * the real number of positions, see counts.
+	 */
+	private int[][] values;
+
+	/**
+	 * The number of positions of the word in every slot.
+	 */
+	private int[] counts;
+
+	/**
+	 * The number of different words.
+	 */
+	private int size;
+
+	/**
+	 * The constructor of DocumentIndexBuilder.
+	 *
+	 * @param docId
+	 *            is the ID of the document in the DocumentTable of globe
+	 *            index.
+	 */
+	public DocumentIndexBuilder(int docId) {
+		this.docId = docId;
+		keys = new String[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY][];
+		counts = new int[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * @return the ID of the document.
+	 */
+	public int getDocId() {
+		return docId;
+	}
+
+	/**
+	 * @return the number of different words.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add one word of the document. Like the indexData method of
+	 * InvertedIndex, the position is counted from 1 in the index.
+	 *
+	 * @param word
+	 *            is the word.
+	 * @param position
+	 *            is the place of the word in the document, from 0.
+	 */
+	public void add(String word, int position) {
+		int slot = insert(word);
+		if (counts[slot] == values[slot].length) {
+			grow(slot, 1);
+		}
+		values[slot][counts[slot]++] = position + 1;
+	}
+
+	/**
+	 * Add all the words of the next part of the document, like a part of a
+	 * big file read by another thread. The positions of the part are counted
+	 * from its own start, so they are moved after the words before it.
+	 *
+	 * @param other
+	 *            is the builder of the part.
+	 * @param offset
+	 *            is the number of words in the document before the part.
+	 */
+	public void addAll(DocumentIndexBuilder other, int offset) {
+		for (int i = 0; i < other.keys.length; i++) {
+			if (other.keys[i] == null) {
+				continue;
+			}
+			int slot = insert(other.keys[i]);
+			int count = other.counts[i];
+			grow(slot, count);
+			int[] positions = values[slot];
+			int[] added = other.values[i];
+			for (int j = 0; j < count; j++) {
+				positions[counts[slot]++] = added[j] + offset;
+			}
+		}
+	}
+
+	/**
+	 * Find the slot of a word, the word is put into the table if it is new.
+	 *
+	 * @param word
+	 *            is the word.
+	 * @return the slot of the word.
+	 */
+	private int insert(String word) {
+		int slot = findSlot(keys, word);
+		if (keys[slot] == null) {
+			keys[slot] = word;
+			values[slot] = new int[2];
+			size++;
+			// keep the table at most half full, so probing stays short.
+			if (size * 2 > keys.length) {
+				rehash();
+				slot = findSlot(keys, word);
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * Make room for more positions of the word in a slot.
+	 *
+	 * @param slot
+	 *            is the slot of the word.
+	 * @param more
+	 *            is the number of positions to add.
+	 */
+	private void grow(int slot, int more) {
+		int needed = counts[slot] + more;
+		if (needed > values[slot].length) {
+			int[] grown = new int[Math.max(needed, values[slot].length * 2)];
+			System.arraycopy(values[slot], 0, grown, 0, counts[slot]);
+			values[slot] = grown;
+		}
+	}
+
+	/**
+	 * Find the slot of the word by linear probing.
+	 *
+	 * @param table
+	 *            is the words of the hash table.
+	 * @param word
+	 *            is the word to find.
+	 * @return the slot of the word, or the empty slot where it should be put.
+	 */
+	private static int findSlot(String[] table, String word) {
+		int mask = table.length - 1;
+		int hash = word.hashCode();
+		// mix the high bits in, because only the low bits choose the slot.
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (table[slot] != null && !table[slot].equals(word)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Double the hash table and put every word into its new slot.
+	 */
+	private void rehash() {
+		String[] oldKeys = keys;
+		int[][] oldValues = values;
+		int[] oldCounts = counts;
+
+		keys = new String[oldKeys.length * 2];
+		values = new int[keys.length][];
+		counts = new int[keys.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int slot = findSlot(keys, oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Sort the words and build one segment containing only this document, the
+	 * positions are copied with exactly the needed length.
+	 *
+	 * @param compressed
+	 *            is true if the positions should be compressed.
+	 * @return the segment of the document.
+	 */
+	public IndexSegment toSegment(boolean compressed) {
+		String[] terms = new String[size];
+		int t = 0;
+		for (String key : keys) {
+			if (key != null) {
+				terms[t++] = key;
+			}
+		}
+		Arrays.sort(terms);
+
+		PostingList[] postings = new PostingList[size];
+		for (t = 0; t < size; t++) {
+			int slot = findSlot(keys, terms[t]);
+			PostingList list = new PostingList(compressed);
+			list.addPositions(docId, values[slot], counts[slot]);
+			postings[t] = list;
+		}
+		return new IndexSegment(terms, postings);
+	}
+}
@@ -0,0 +1,320 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * This class DocumentTable gives every file path or web URL a dense int
+ * document ID, so the index and the search results only need to keep the int
+ * and the path is stored once.
+ *
+ * A document which is changed or deleted keeps its old ID in the index until
+ * the segments are merged, so the old ID is marked as deleted here and the
+ * searches skip it. A changed document gets a new ID for its new words, the
+ * new ID is skipped too until the words are in the index, then the path is
+ * moved to it and the old ID is skipped instead, both in one step.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class DocumentTable {
+
+	/**
+	 * This list stores the file path or web URL of every document, the index
+	 * of the list is the document ID.
+	 */
+	private ArrayList<String> documents;
+
+	/**
+	 * This HashMap is used for finding the document ID of a file path or web
+	 * URL.
+	 */
+	private HashMap<String, Integer> documentIds;
+
+	/**
+	 * This MultiReadersLock tableLock is for locking the table because
+	 * different workers register their documents at same time.
+	 */
+	private MultiReadersLock tableLock;
+
+	/**
+	 * The bits of the document IDs skipped by the searches, the deleted IDs,
+	 * the new IDs not replaced yet and the IDs not given out yet, so a search
+	 * never sees an ID newer than the bits it read. A replace or delete
+	 * copies the array, so a search reading it once sees either the old ID
+	 * or the new ID of a replaced document, never both.
+	 */
+	private volatile long[] deleted;
+
+	/**
+	 * The bits of the IDs which are no longer found by their paths, their
+	 * postings are dropped by a merge. A new ID is not in it, so a merge
+	 * before replace keeps its postings.
+	 */
+	private volatile long[] retired;
+
+	/**
+	 * The constructor of DocumentTable.
+	 */
+	public DocumentTable() {
+		documents = new ArrayList<String>();
+		documentIds = new HashMap<String, Integer>();
+		tableLock = new MultiReadersLock();
+		deleted = new long[0];
+	}
+
+	/**
+	 * Get the document ID of the file path or web URL, a new ID is assigned
+	 * if the document is new.
+	 *
+	 * @param document
+	 *            is the file path or web URL.
+	 * @return the document ID.
+	 */
+	public int getId(String document) {
+		// most of the time the document is already registered, so try it
+		// with the read lock first.
+		tableLock.acquireReadLock();
+		Integer docId = documentIds.get(document);
+		tableLock.releaseReadLock();
+
+		if (docId == null) {
+			tableLock.acquireWriteLock();
+			// another worker may add it before we get the write lock.
+			docId = documentIds.get(document);
+			if (docId == null) {
+				docId = documents.size();
+				documentIds.put(document, docId);
+				documents.add(document);
+				// a new document has no postings yet, so its bit is cleared
+				// in place.
+				long[] bits = deleted;
+				if ((docId >>> 6) >= bits.length) {
+					bits = copyBits(bits, (docId >>> 6) + 1, -1L);
+				}
+				bits[docId >>> 6] &= ~(1L << docId);
+				deleted = bits;
+			}
+			tableLock.releaseWriteLock();
+		}
+		return docId;
+	}
+
+	/**
+	 * Give a document a new ID for its new content. The path still finds the
+	 * old ID and the new ID is skipped by the searches until replace is
+	 * called, so the document is searched with its old words while the new
+	 * ones are read.
+	 *
+	 * @param document
+	 *            is the file path or web URL.
+	 * @return the new document ID.
+	 */
+	public int newId(String document) {
+		tableLock.acquireWriteLock();
+		// the bit of an ID not given out yet is already set.
+		int docId = documents.size();
+		documents.add(document);
+		tableLock.releaseWriteLock();
+		return docId;
+	}
+
+	/**
+	 * Move the path of a document to its new ID and delete the old ID. The
+	 * searches start to find the new ID and skip the old ID at the same time.
+	 *
+	 * @param document
+	 *            is the file path or web URL.
+	 * @param docId
+	 *            is the new ID from newId.
+	 * @return the old ID, or -1 if the document is new.
+	 */
+	public int replace(String document, int docId) {
+		tableLock.acquireWriteLock();
+		Integer old = documentIds.put(document, docId);
+		long[] bits = copyBits(deleted, (docId >>> 6) + 1, -1L);
+		bits[docId >>> 6] &= ~(1L << docId);
+		if (old != null) {
+			bits[old >>> 6] |= 1L << old;
+			retired = setBit(retired, old);
+		}
+		// the new ID is found and the old ID is skipped from this write.
+		deleted = bits;
+		tableLock.releaseWriteLock();
+		return old == null ? -1 : old;
+	}
+
+	/**
+	 * Delete a document, its ID is never found again.
+	 *
+	 * @param document
+	 *            is the file path or web URL.
+	 * @return the deleted ID, or -1 if the document is not in the table.
+	 */
+	public int delete(String document) {
+		tableLock.acquireWriteLock();
+		Integer old = documentIds.remove(document);
+		if (old != null) {
+			long[] bits = copyBits(deleted, deleted.length, -1L);
+			bits[old >>> 6] |= 1L << old;
+			deleted = bits;
+			retired = setBit(retired, old);
+		}
+		tableLock.releaseWriteLock();
+		return old == null ? -1 : old;
+	}
+
+	/**
+	 * Copy the bits into a new array, the searches may still be reading the
+	 * old one. The array grows to twice its length at least, so adding many
+	 * documents copies it only a few times.
+	 *
+	 * @param bits
+	 *            is the bits, it could be null.
+	 * @param length
+	 *            is the least length of the copy.
+	 * @param fill
+	 *            is the value of the new words.
+	 * @return the new bits.
+	 */
+	private static long[] copyBits(long[] bits, int length, long fill) {
+		int old = bits == null ? 0 : bits.length;
+		long[] copy = new long[length > old ? Math.max(length, old * 2) : old];
+		if (bits != null) {
+			System.arraycopy(bits, 0, copy, 0, old);
+		}
+		Arrays.fill(copy, old, copy.length, fill);
+		return copy;
+	}
+
+	/**
+	 * @param bits
+	 *            is the retired bits, it could be null.
+	 * @param docId
+	 *            is the ID to set.
+	 * @return a copy of the bits with the ID set.
+	 */
+	private static long[] setBit(long[] bits, int docId) {
+		long[] copy = copyBits(bits, (docId >>> 6) + 1, 0);
+		copy[docId >>> 6] |= 1L << docId;
+		return copy;
+	}
+
+	/**
+	 * @return the bits of the IDs skipped by the searches for isDeleted, it
+	 *         is never null. A search must read it only once, so all its
+	 *         words see the same documents.
+	 */
+	public long[] getDeleted() {
+		return deleted;
+	}
+
+	/**
+	 * @return the bits of the IDs whose postings are dropped by a merge for
+	 *         isRetired, or null if there is none.
+	 */
+	public long[] getRetired() {
+		return retired;
+	}
+
+	/**
+	 * @param deleted
+	 *            is the bits from getDeleted, or null if none is deleted.
+	 * @param docId
+	 *            is the document ID.
+	 * @return true if the ID is deleted, or newer than the bits.
+	 */
+	public static boolean isDeleted(long[] deleted, int docId) {
+		if (deleted == null) {
+			return false;
+		}
+		int word = docId >>> 6;
+		return word >= deleted.length || (deleted[word] & (1L << docId)) != 0;
+	}
+
+	/**
+	 * @param retired
+	 *            is the bits from getRetired, it could be null.
+	 * @param docId
+	 *            is the document ID.
+	 * @return true if the postings of the ID should be dropped.
+	 */
+	public static boolean isRetired(long[] retired, int docId) {
+		if (retired == null) {
+			return false;
+		}
+		int word = docId >>> 6;
+		return word < retired.length && (retired[word] & (1L << docId)) != 0;
+	}
+
+	/**
+	 * Give the documents found by their paths new IDs without gaps, like
+	 * when the index is saved and the deleted IDs are left out.
+	 *
+	 * @return an array whose element at document ID is the new ID, or -1 for
+	 *         an ID which is no longer found by its path. It is null if every
+	 *         ID is found, then the IDs do not change.
+	 */
+	public int[] getCompactMap() {
+		tableLock.acquireReadLock();
+		int[] map = null;
+		if (documentIds.size() != documents.size()) {
+			map = new int[documents.size()];
+			int next = 0;
+			for (int i = 0; i < map.length; i++) {
+				Integer docId = documentIds.get(documents.get(i));
+				map[i] = docId != null && docId == i ? next++ : -1;
+			}
+		}
+		tableLock.releaseReadLock();
+		return map;
+	}
+
+	/**
+	 * @param docId
+	 *            is the document ID.
+	 * @return the file path or web URL of the document.
+	 */
+	public String getDocument(int docId) {
+		tableLock.acquireReadLock();
+		String document = documents.get(docId);
+		tableLock.releaseReadLock();
+		return document;
+	}
+
+	/**
+	 * @return the number of documents in the table.
+	 */
+	public int size() {
+		tableLock.acquireReadLock();
+		int size = documents.size();
+		tableLock.releaseReadLock();
+		return size;
+	}
+
+	/**
+	 * Sort all the documents by their paths.
+	 *
+	 * @return an array whose element at document ID is the rank of the
+	 *         document path.
+	 */
+	public int[] getRanks() {
+		tableLock.acquireReadLock();
+		Integer[] sorted = new Integer[documents.size()];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return documents.get(a).compareTo(documents.get(b));
+			}
+		});
+		tableLock.releaseReadLock();
+
+		int[] rank = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			rank[sorted[i]] = i;
+		}
+		return rank;
+	}
+}
@@ -23,6 +23,7 @@ public class Driver {
 	 * 
 	 */
 	public static InvertedIndex i;
+	public static QueryCache cache;
 	public static int port;
 	public static void main(String[] args) {
 	
@@ -39,6 +40,9 @@ public class Driver {
 			if (parser.hasFlag("-d")) {
 				dir = parser.getValue("-d");
 			}
+			if (parser.hasFlag("-q")) {
+				queryFilePath = parser.getValue("-q");
+			}
 			if (parser.hasFlag("-p")) {
 				 port = Integer.parseInt(parser.getValue("-p"));
 			}
@@ -51,14 +55,100 @@ public class Driver {
 			// initialize the classes.
 
 			WorkQueue workQueue = new WorkQueue(thread);
-			 i = new InvertedIndex();
+			// the results of the prefixes up to -prefix chars are kept
+			// ready, 0 keeps none.
+			int prefixLength = parser.hasValue("-prefix") ? Integer
+					.parseInt(parser.getValue("-prefix"))
+					: PrefixIndex.DEFAULT_LENGTH;
+			// -manifest remembers the files of the saved index, so with
+			// -load only the changed files are read again. -watch keeps
+			// updating the index while the files change.
+			boolean incremental = dir != null
+					&& (parser.hasValue("-manifest") || parser.hasFlag("-watch"));
+			IndexUpdater updater = null;
+			if (parser.hasFlag("-map")) {
+				// search the saved index file without loading it.
+				i = new MappedInvertedIndex(parser.getValue("-map"));
+			} else if (incremental) {
+				IndexManifest manifest = new IndexManifest();
+				if (parser.hasValue("-load")
+						&& new File(parser.getValue("-load")).isFile()) {
+					i = IndexSnapshot.load(parser.getValue("-load"),
+							parser.hasFlag("-c"));
+					// the manifest is only right for the index saved with it.
+					if (parser.hasValue("-manifest")
+							&& new File(parser.getValue("-manifest")).isFile()) {
+						manifest = IndexManifest.load(parser
+								.getValue("-manifest"));
+					}
+				} else {
+					i = new InvertedIndex(new DocumentTable(),
+							parser.hasFlag("-c"));
+				}
+				i.setPrefixLength(prefixLength);
+				updater = new IndexUpdater(i, workQueue, manifest);
+				updater.setMappedMode(parser.hasFlag("-mmap"));
+				if (parser.hasFlag("-watch")) {
+					// watch first, so no change is missed while updating.
+					updater.watch(new File(dir));
+				}
+				updater.update(new File(dir));
+			} else if (parser.hasFlag("-load")) {
+				// load the saved index instead of building it again.
+				i = IndexSnapshot.load(parser.getValue("-load"),
+						parser.hasFlag("-c"));
+				i.setPrefixLength(prefixLength);
+			} else {
+			 i = new InvertedIndex(new DocumentTable(), parser.hasFlag("-c"));
+			 i.setPrefixLength(prefixLength);
 			if (seed != null) {
 			    HTMLCrawler crawler = new HTMLCrawler(seed, i, workQueue);
 			    crawler.parseWords();
 			} else {
-			FileReader fr = new FileReader(i,
-					DirectoryParser.getFileList(new File(dir)), workQueue);
-			fr.readFiles();
+			// the files are read while the directories are still walked.
+			FileReader fr = new FileReader(i, workQueue);
+			// -mmap splits the bytes of the files without decoding lines.
+			fr.setMappedMode(parser.hasFlag("-mmap"));
+			fr.readDirectory(new File(dir));
+			}
+			}
+			if (parser.hasFlag("-save")) {
+				if (updater != null) {
+					// saved with the manifest, while no update is running.
+					updater.save(parser.getValue("-save"),
+							parser.hasValue("-manifest") ? parser
+									.getValue("-manifest") : null);
+				} else {
+					IndexSnapshot.save(i, parser.getValue("-save"));
+				}
+			}
+
+			// the search results are cached in front of the index, -cache
+			// gives the memory budget in MB.
+			long cacheSize = parser.hasValue("-cache") ? Long.parseLong(parser
+					.getValue("-cache")) : 64;
+			cache = new QueryCache(i, cacheSize * 1024 * 1024);
+
+			// -maxterms, -maxpostings and -timeout (ms) stop a search early
+			// with partial results, 0 means no limit.
+			i.setSearchLimits(
+					parser.hasValue("-maxterms") ? Integer.parseInt(parser
+							.getValue("-maxterms")) : 0,
+					parser.hasValue("-maxpostings") ? Long.parseLong(parser
+							.getValue("-maxpostings")) : 0,
+					parser.hasValue("-timeout") ? Long.parseLong(parser
+							.getValue("-timeout")) : 0);
+
+			if (queryFilePath != null) {
+				// search all the lines of the query file at the same time, and
+				// write the results while searching.
+				QueryFileHandler q = new QueryFileHandler(i, workQueue, cache);
+				// -boolean makes every line a query with AND, OR, NOT,
+				// phrases and NEAR/k.
+				q.setBooleanMode(parser.hasFlag("-boolean"));
+				// -exact matches every word exactly instead of as a prefix.
+				q.setExactMode(parser.hasFlag("-exact"));
+				q.searchQueryFile(queryFilePath, "searchresults.txt");
 			}
 
 			new LoginServer();
@@ -66,6 +156,8 @@ public class Driver {
 				i.printIndex();
 			}
 			workQueue.shutdown();
+			// the segments are not merged in the background any more.
+			i.shutdown();
 		} catch (Exception ex) {
 			System.err.println("Error: " + ex.getMessage());
 
@@ -0,0 +1,83 @@
+/**
+ * This class ExclusionCursor is used for NOT, it gives the documents of one
+ * cursor which are not in another cursor.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class ExclusionCursor extends DocCursor {
+
+	/**
+	 * The cursor of the documents to give.
+	 */
+	private DocCursor include;
+
+	/**
+	 * The cursor of the documents to remove.
+	 */
+	private DocCursor exclude;
+
+	/**
+	 * The constructor of ExclusionCursor.
+	 *
+	 * @param include
+	 *            is the cursor of the documents to give.
+	 * @param exclude
+	 *            is the cursor of the documents to remove.
+	 */
+	public ExclusionCursor(DocCursor include, DocCursor exclude) {
+		this.include = include;
+		this.exclude = exclude;
+	}
+
+	@Override
+	public int docId() {
+		return include.docId();
+	}
+
+	@Override
+	public int nextDoc() {
+		return skipExcluded(include.nextDoc());
+	}
+
+	@Override
+	public int advance(int target) {
+		return skipExcluded(include.advance(target));
+	}
+
+	/**
+	 * Move the including cursor until its document is not excluded.
+	 *
+	 * @param doc
+	 *            is the current document of the including cursor.
+	 * @return the new current document.
+	 */
+	private int skipExcluded(int doc) {
+		while (doc != NO_MORE_DOCS) {
+			int other = exclude.docId();
+			if (other < doc) {
+				other = exclude.advance(doc);
+			}
+			if (other != doc) {
+				return doc;
+			}
+			doc = include.nextDoc();
+		}
+		return doc;
+	}
+
+	@Override
+	public int frequency() {
+		return include.frequency();
+	}
+
+	@Override
+	public int firstPosition() {
+		return include.firstPosition();
+	}
+
+	@Override
+	public long cost() {
+		return include.cost();
+	}
+}
@@ -1,20 +1,91 @@
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * The class FileReader is used for read word from text file and pass it to
  * InvertedIndex, then InvertedIndex calls the method to store it by asking way.
  * 
+ * In the mapped mode the UTF-8 bytes of a file are split by the Tokenizer
+ * without decoding them into lines of chars, only the words are made into
+ * Strings. A small file is read into a direct buffer reused by the thread, a
+ * big file is mapped into memory part by part, every part ending at a
+ * white-space so no word is cut. The words are the same in both modes.
+ * 
+ * A directory could also be read without listing all its files first. The
+ * directory is walked by Files.walkFileTree, which gives every text file to
+ * the threads as soon as it is found. Only FILES_PER_THREAD files for every
+ * thread wait in WorkQueue, when there are more, the walking thread reads the
+ * file itself, so the walk could never run far ahead of the reading.
+ * 
+ * A file bigger than CHUNK_SIZE is split into parts, every part ending after
+ * a white-space, and the parts are read by different threads like small
+ * files, so one big file does not keep one thread busy while the others wait.
+ * Every part has its own DocumentIndexBuilder with positions counted from the
+ * start of the part. The thread finishing the last part joins them in order,
+ * moving the positions of every part after the words of the parts before it,
+ * so the document is the same as read by one thread. The parts are always
+ * read as bytes.
+ * 
  * @author ANG ZHANG
  * 
  */
 public class FileReader {
 
+	/**
+	 * A file up to this size is read into the buffer of the thread in the
+	 * mapped mode, a bigger one is mapped, because mapping a small file costs
+	 * more than reading it.
+	 */
+	private static final int READ_LIMIT = 1 << 20;
+
+	/**
+	 * The most bytes of a file mapped at once.
+	 */
+	private static final int MAP_WINDOW = 64 << 20;
+
+	/**
+	 * The number of files waiting or being read for every thread of
+	 * WorkQueue when a directory is read.
+	 */
+	private static final int FILES_PER_THREAD = 4;
+
+	/**
+	 * A file bigger than this is split into parts of about this size.
+	 */
+	private static final int CHUNK_SIZE = 8 << 20;
+
+	/**
+	 * The buffer of every thread for the small files.
+	 */
+	private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(READ_LIMIT);
+		}
+	};
+
+	/**
+	 * The paths of the files which could not be read.
+	 */
+	private Set<String> failed;
+
 	/**
 	 * This InvertedIndex type dataStore is for store word when get word from
 	 * text file.
@@ -37,6 +108,17 @@ public class FileReader {
 	 */
 	private int pending;
 
+	/**
+	 * True if the files are read as bytes, instead of lines of chars.
+	 */
+	private boolean mappedMode;
+
+	/**
+	 * The most files waiting or being read at once when a directory is
+	 * read.
+	 */
+	private int maxPending;
+
 	/**
 	 * Constructor
 	 * 
@@ -52,9 +134,35 @@ public class FileReader {
 		this.fileList = fileList;
 		this.fileWorkQueue = wQueue;
 		pending = 0;
+		maxPending = wQueue.size() * FILES_PER_THREAD;
+		failed = Collections.synchronizedSet(new HashSet<String>());
 
 	}
 
+	/**
+	 * Constructor of a FileReader which reads a directory by readDirectory,
+	 * without a list of files.
+	 * 
+	 * @param i
+	 *            is reference of InvertedIndex
+	 * @param wQueue
+	 *            is group of threads
+	 */
+	public FileReader(InvertedIndex i, WorkQueue wQueue) {
+		this(i, new ArrayList<File>(), wQueue);
+	}
+
+	/**
+	 * Choose how the files are read.
+	 * 
+	 * @param mappedMode
+	 *            is true if the UTF-8 bytes of every file are split directly,
+	 *            a big file is mapped into memory.
+	 */
+	public void setMappedMode(boolean mappedMode) {
+		this.mappedMode = mappedMode;
+	}
+
 	/**
 	 * This shared method getPending is used for obtaining the current number of
 	 * running threads.
@@ -97,6 +205,21 @@ public class FileReader {
 
 	}
 
+	/**
+	 * Give a worker to the threads, or run it at once when there are already
+	 * maxPending files waiting or being read.
+	 * 
+	 * @param worker
+	 *            is a FileWorker, it is already counted in pending.
+	 */
+	private void handOff(Runnable worker) {
+		if (getPending() > maxPending) {
+			worker.run();
+		} else {
+			fileWorkQueue.execute(worker);
+		}
+	}
+
 	/**
 	 * This inner runnable class FileWorker is using for running our worker
 	 * threads. In this class, we put former readFile method into this run
@@ -112,6 +235,11 @@ public class FileReader {
 		 */
 		private String filePath;
 
+		/**
+		 * True if the file is read again and its old words are replaced.
+		 */
+		private boolean replace;
+
 		/**
 		 * This is constructor of FileWorker. After we initializing class
 		 * FileWorker, we update pending by one.
@@ -121,7 +249,22 @@ public class FileReader {
 		 */
 		public FileWorker(String filePath) {
 
+			this(filePath, false);
+		}
+
+		/**
+		 * The constructor of FileWorker for a file which may be in the index
+		 * already.
+		 * 
+		 * @param filePath
+		 *            is the path from file list.
+		 * @param replace
+		 *            is true if the old words of the file are replaced.
+		 */
+		public FileWorker(String filePath, boolean replace) {
+
 			this.filePath = filePath;
+			this.replace = replace;
 			// update the current number of threads
 			updatePending(1);
 		}
@@ -130,72 +273,412 @@ public class FileReader {
 
 		@Override
 		public void run() {
-			// create a local index for one thread to store data.
-			InvertedIndex localIndex = new InvertedIndex();
+			// register the file once, the builder only keeps the document ID
+			// of globe index. A file read again gets a new ID, the old one is
+			// searched until the new words are added.
+			DocumentTable documents = dataStore.getDocumentTable();
+			int docId = replace ? documents.newId(filePath) : documents
+					.getId(filePath);
+			// create a builder without any lock for the words of this file.
+			DocumentIndexBuilder builder = new DocumentIndexBuilder(docId);
 
 			File sourceFile = new File(filePath);
 
-			if (!sourceFile.isFile() || !sourceFile.canRead()) {
-				try {
-					throw new IOException("Unable to open file");
-				} catch (IOException e) {
-					System.err.println("Error: " + e.getMessage());
+			try {
+				if (sourceFile.length() > CHUNK_SIZE) {
+					// the parts are read by the threads, the last one adds
+					// the whole file to the index.
+					splitFile(sourceFile, new SplitDocument(filePath, docId,
+							replace));
+					return;
 				}
+				readDocument(sourceFile, builder, mappedMode);
+				// after dealing with one text file, put all the words of it
+				// to globe index in one merge.
+				addToIndex(filePath, builder, replace);
+			} catch (IOException exception) {
+				System.err.println("Error: " + exception.getMessage());
+				failed.add(filePath);
+			} finally {
+				// after running this thread, decrease the number of current
+				// threads, even if the file could not be read, otherwise
+				// readFiles waits forever.
+				updatePending(-1);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Add the words of a file to the index.
+	 * 
+	 * @param filePath
+	 *            is the path of the file.
+	 * @param builder
+	 *            is the words of the file.
+	 * @param replace
+	 *            is true if the old words of the file are replaced.
+	 */
+	private void addToIndex(String filePath, DocumentIndexBuilder builder,
+			boolean replace) {
+		if (replace) {
+			dataStore.replaceDocument(filePath, builder);
+		} else {
+			dataStore.addDocument(builder);
+		}
+	}
 
+	/**
+	 * Give the parts of a big file to the threads.
+	 * 
+	 * @param sourceFile
+	 *            is the file.
+	 * @param document
+	 *            is the file for keeping its parts.
+	 */
+	private void splitFile(File sourceFile, SplitDocument document)
+			throws IOException {
+		long[] starts = findChunks(sourceFile);
+		document.setCount(starts.length - 1);
+		for (int part = 0; part + 1 < starts.length; part++) {
+			handOff(new ChunkWorker(sourceFile, document, part, starts[part],
+					starts[part + 1]));
+		}
+	}
+
+	/**
+	 * Find where a big file is split. A part ends after the last white-space
+	 * before the next CHUNK_SIZE bytes, so no word is cut, and a part without
+	 * any white-space is joined with the next one.
+	 * 
+	 * @param sourceFile
+	 *            is the file.
+	 * @return the start of every part, and the size of the file at the end.
+	 */
+	private static long[] findChunks(File sourceFile) throws IOException {
+		FileInputStream stream = new FileInputStream(sourceFile);
+		try {
+			FileChannel channel = stream.getChannel();
+			long size = channel.size();
+			List<Long> starts = new ArrayList<Long>();
+			starts.add(0L);
+			long start = 0;
+			for (long end = CHUNK_SIZE; end < size; end += CHUNK_SIZE) {
+				// only the end of the window is read to find the white-space.
+				long from = Math.max(start, end - CHUNK_SIZE);
+				ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+						from, end - from);
+				int last = Tokenizer.lastSeparator(window, 0,
+						window.capacity());
+				if (last >= 0) {
+					start = from + last + 1;
+					starts.add(start);
+				}
 			}
-			FileInputStream fir = null;
-			try {
-				fir = new FileInputStream(sourceFile.getAbsolutePath());
-			} catch (FileNotFoundException e) {
-				System.err.println("Error: " + e.getMessage());
+			starts.add(size);
+
+			long[] result = new long[starts.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = starts.get(i);
 			}
-			BufferedReader reader = null;
-			try {
-				reader = new BufferedReader(new InputStreamReader(fir, "utf-8"));
-				String sourceLine = "";
+			return result;
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * This class SplitDocument keeps the parts of a big file until all of
+	 * them are read.
+	 * 
+	 * @author ANG ZHANG
+	 * 
+	 */
+	private static class SplitDocument {
 
-				int position = 0;
-				while ((sourceLine = reader.readLine()) != null) {
-					String[] wordArray = sourceLine.split(" ");
+		/**
+		 * The path and ID of the file.
+		 */
+		private String filePath;
+		private int docId;
 
-					for (int i = 0; i < wordArray.length; i++) {
+		/**
+		 * True if the old words of the file are replaced.
+		 */
+		private boolean replace;
 
-						if (getWordWithoutSymbols(wordArray[i]).isEmpty()) {
-							continue;
-						} else {
+		/**
+		 * The builder and the number of words of every part.
+		 */
+		private DocumentIndexBuilder[] parts;
+		private int[] words;
 
-							// call indexData method to store the word into the
-							// local index data structure.
-							localIndex.indexData(sourceFile,
-									getWordWithoutSymbols(wordArray[i]),
-									position);
+		/**
+		 * The number of parts not finished.
+		 */
+		private int remaining;
 
-							position++;
-						}
+		/**
+		 * True if a part could not be read, then the file is not added.
+		 */
+		private boolean failed;
 
-					}
+		/**
+		 * Constructor of SplitDocument.
+		 * 
+		 * @param filePath
+		 *            is the path of the file.
+		 * @param docId
+		 *            is the ID of the file.
+		 * @param replace
+		 *            is true if the old words of the file are replaced.
+		 */
+		public SplitDocument(String filePath, int docId, boolean replace) {
+			this.filePath = filePath;
+			this.docId = docId;
+			this.replace = replace;
+		}
 
+		/**
+		 * Set the number of parts before any of them is read.
+		 * 
+		 * @param count
+		 *            is the number of parts.
+		 */
+		public void setCount(int count) {
+			parts = new DocumentIndexBuilder[count];
+			words = new int[count];
+			remaining = count;
+		}
+
+		/**
+		 * @return the path of the file.
+		 */
+		public String getFilePath() {
+			return filePath;
+		}
+
+		/**
+		 * @return the ID of the file.
+		 */
+		public int getDocId() {
+			return docId;
+		}
+
+		/**
+		 * @return true if the old words of the file are replaced.
+		 */
+		public boolean isReplace() {
+			return replace;
+		}
+
+		/**
+		 * Keep a part which is read.
+		 * 
+		 * @param part
+		 *            is the index of the part.
+		 * @param builder
+		 *            is the builder of the part, or null if it failed.
+		 * @param count
+		 *            is the number of words of the part.
+		 * @return true if it is the last part finished.
+		 */
+		public synchronized boolean finish(int part,
+				DocumentIndexBuilder builder, int count) {
+			if (builder == null) {
+				failed = true;
+			}
+			parts[part] = builder;
+			words[part] = count;
+			remaining--;
+			return remaining == 0;
+		}
+
+		/**
+		 * Join all the parts in order after they are finished, the positions
+		 * of every part are moved after the words of the parts before it.
+		 * 
+		 * @return the builder of the whole file, or null if a part failed.
+		 */
+		public synchronized DocumentIndexBuilder join() {
+			if (failed) {
+				return null;
+			}
+			DocumentIndexBuilder whole = parts[0];
+			int offset = words[0];
+			for (int part = 1; part < parts.length; part++) {
+				whole.addAll(parts[part], offset);
+				offset += words[part];
+				parts[part] = null;
+			}
+			return whole;
+		}
+	}
+
+	/**
+	 * This inner runnable class ChunkWorker reads one part of a big file.
+	 * 
+	 * @author ANG ZHANG
+	 * 
+	 */
+	private class ChunkWorker implements Runnable {
+
+		/**
+		 * The file, and the parts of it.
+		 */
+		private File sourceFile;
+		private SplitDocument document;
+
+		/**
+		 * The index of the part, and its bytes in the file.
+		 */
+		private int part;
+		private long start;
+		private long end;
+
+		/**
+		 * Constructor of ChunkWorker, the part is counted in pending until it
+		 * is read.
+		 * 
+		 * @param sourceFile
+		 *            is the file.
+		 * @param document
+		 *            is the parts of the file.
+		 * @param part
+		 *            is the index of the part.
+		 * @param start
+		 *            is the first byte of the part.
+		 * @param end
+		 *            is the byte after the part.
+		 */
+		public ChunkWorker(File sourceFile, SplitDocument document, int part,
+				long start, long end) {
+
+			this.sourceFile = sourceFile;
+			this.document = document;
+			this.part = part;
+			this.start = start;
+			this.end = end;
+			updatePending(1);
+		}
+
+		@Override
+		public void run() {
+			try {
+				DocumentIndexBuilder builder = new DocumentIndexBuilder(
+						document.getDocId());
+				int count = 0;
+				try {
+					count = readChunk(builder);
+				} catch (IOException exception) {
+					System.err.println("Error: " + exception.getMessage());
+					builder = null;
 				}
-				// after dealing with one text file, put one complete local
-				// index to globe index by addAllIndex method.
-				dataStore.addAllIndex(localIndex, filePath);
-				// after running this thread, decrease the number of current
-				// threads.
+				if (document.finish(part, builder, count)) {
+					DocumentIndexBuilder whole = document.join();
+					if (whole != null) {
+						addToIndex(document.getFilePath(), whole,
+								document.isReplace());
+					} else {
+						failed.add(document.getFilePath());
+					}
+				}
+			} finally {
 				updatePending(-1);
-			} catch (IOException exception) {
-				System.err.println("Error: " + exception.getMessage());
+			}
+		}
 
+		/**
+		 * Read the words of the part, counting the positions from its start.
+		 * 
+		 * @param builder
+		 *            is the builder of the part.
+		 * @return the number of words of the part.
+		 */
+		private int readChunk(DocumentIndexBuilder builder) throws IOException {
+			FileInputStream stream = new FileInputStream(sourceFile);
+			try {
+				ByteBuffer window = stream.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, start, end - start);
+				return addWords(Tokenizer.getLocal(), window, builder, 0);
 			} finally {
-				try {
-					fir.close();
-					reader.close();
-				} catch (Exception ignored) {
-					// do nothing
-				}
+				stream.close();
+			}
+		}
+	}
+
+	/**
+	 * This inner class TxtFileVisitor is given every file found by
+	 * Files.walkFileTree, and hands the text files to the threads.
+	 * 
+	 * @author ANG ZHANG
+	 * 
+	 */
+	private class TxtFileVisitor extends SimpleFileVisitor<Path> {
+
+		@Override
+		public FileVisitResult visitFile(Path path,
+				BasicFileAttributes attributes) {
+			File file = path.toFile();
+			if (attributes.isRegularFile() && DirectoryParser.isTxtFile(file)) {
+				handOff(new FileWorker(file.getAbsolutePath()));
 			}
+			return FileVisitResult.CONTINUE;
+		}
 
+		@Override
+		public FileVisitResult visitFileFailed(Path path, IOException exception) {
+			// a directory which could not be read, or a loop of links.
+			System.err.println("Error: Unable to read " + path + ", "
+					+ exception.getClass().getSimpleName());
+			return FileVisitResult.CONTINUE;
 		}
+	}
+
+	/**
+	 * This method readDirectory is used to read all the text files of a
+	 * directory and its sub-directories, the files are read while the
+	 * directories are still being walked.
+	 * 
+	 * @param dir
+	 *            is the directory.
+	 */
+	public void readDirectory(File dir) {
 
+		if (!dir.isDirectory()) {
+			System.err.println("Error: " + dir + " is not a directory.");
+			return;
+		}
+		// the links are followed like File.isDirectory and File.isFile do.
+		try {
+			Files.walkFileTree(dir.toPath(),
+					EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+					Integer.MAX_VALUE, new TxtFileVisitor());
+		} catch (IOException exception) {
+			System.err.println("Error: " + exception.getMessage());
+		}
+		waitPending();
+	}
+
+	/**
+	 * Read some files again after they are changed or created. Every file
+	 * gets a new ID, and its old words are replaced when the new ones are
+	 * read, so the time only depends on these files and not on the whole
+	 * index.
+	 * 
+	 * @param files
+	 *            is the changed files.
+	 * @return the absolute paths of the files which could not be read, their
+	 *         old words are kept.
+	 */
+	public Set<String> replaceFiles(List<File> files) {
+
+		for (File file : files) {
+			handOff(new FileWorker(file.getAbsolutePath(), true));
+		}
+		waitPending();
+		return failed;
 	}
 
 	/**
@@ -206,18 +689,156 @@ public class FileReader {
 		for (File file : this.fileList) {
 			this.readFile(file.getAbsolutePath());
 		}
-		// We need to wait all of threads have finished the job.
-		while (getPending() > 0) {
+		waitPending();
+	}
 
-			synchronized (this) {
-				try {
+	/**
+	 * Wait until all the files are finished.
+	 */
+	private synchronized void waitPending() {
+		// We need to wait all of threads have finished the job. pending is
+		// checked with the lock held, so the last notify could not be missed.
+		while (pending > 0) {
+			try {
+
+				wait();
+			} catch (InterruptedException ex) {
+				System.out.println(ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Read all the words of one file into a builder.
+	 * 
+	 * @param sourceFile
+	 *            is the file.
+	 * @param builder
+	 *            is the builder of the file.
+	 * @param mapped
+	 *            is true if the UTF-8 bytes are split directly, instead of
+	 *            reading lines of chars.
+	 */
+	public static void readDocument(File sourceFile,
+			DocumentIndexBuilder builder, boolean mapped) throws IOException {
+		if (mapped) {
+			readBytes(sourceFile, builder);
+		} else {
+			readLines(sourceFile, builder);
+		}
+	}
 
-					wait();
-				} catch (InterruptedException ex) {
-					System.out.println(ex.getMessage());
+	/**
+	 * Read the file line by line and add its words to the builder.
+	 * 
+	 * @param sourceFile
+	 *            is the file.
+	 * @param builder
+	 *            is the builder of the file.
+	 */
+	private static void readLines(File sourceFile, DocumentIndexBuilder builder)
+			throws IOException {
+
+		if (!sourceFile.isFile() || !sourceFile.canRead()) {
+			throw new IOException("Unable to open file");
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(sourceFile.getAbsolutePath()), "utf-8"));
+		try {
+			String sourceLine = "";
+			// the tokenizer of the thread splits every line in one scan.
+			Tokenizer tokenizer = Tokenizer.getLocal();
+
+			int position = 0;
+			while ((sourceLine = reader.readLine()) != null) {
+				tokenizer.reset(sourceLine);
+
+				while (tokenizer.next()) {
+					// store the word into the builder of this file.
+					builder.add(tokenizer.word(), position);
+
+					position++;
 				}
+
 			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Split the UTF-8 bytes of the file and add its words to the
+	 * builder. A small file is read into the buffer of the thread, a big
+	 * one is mapped part by part.
+	 * 
+	 * @param sourceFile
+	 *            is the file.
+	 * @param builder
+	 *            is the builder of the file.
+	 */
+	private static void readBytes(File sourceFile, DocumentIndexBuilder builder)
+			throws IOException {
+
+		FileInputStream stream = new FileInputStream(sourceFile);
+		try {
+			FileChannel channel = stream.getChannel();
+			long size = channel.size();
+			Tokenizer tokenizer = Tokenizer.getLocal();
+			int position = 0;
+
+			if (size <= READ_LIMIT) {
+				ByteBuffer buffer = BUFFERS.get();
+				buffer.clear();
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+					// read until the buffer is full or the file ends.
+				}
+				buffer.flip();
+				addWords(tokenizer, buffer, builder, position);
+				return;
+			}
+
+			long offset = 0;
+			while (offset < size) {
+				int length = (int) Math.min(MAP_WINDOW, size - offset);
+				ByteBuffer window = channel.map(
+						FileChannel.MapMode.READ_ONLY, offset, length);
+				if (offset + length < size) {
+					// the next part starts after the last white-space, a
+					// word longer than a whole part is cut.
+					length = Tokenizer.cutAfterSeparator(window, 0, length);
+					window.limit(length);
+				}
+				position = addWords(tokenizer, window, builder, position);
+				offset += length;
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Add the words of some UTF-8 bytes to the builder.
+	 * 
+	 * @param tokenizer
+	 *            is the Tokenizer of the thread.
+	 * @param buffer
+	 *            is the bytes from its position to its limit.
+	 * @param builder
+	 *            is the builder of the file.
+	 * @param position
+	 *            is the position of the first word.
+	 * @return the position after the last word.
+	 */
+	private static int addWords(Tokenizer tokenizer, ByteBuffer buffer,
+			DocumentIndexBuilder builder, int position) {
+		tokenizer.reset(buffer);
+		while (tokenizer.next()) {
+			// only the word is made into a String, the cache of the
+			// tokenizer gives the same String for a repeated word.
+			builder.add(tokenizer.word(), position);
+			position++;
 		}
+		return position;
 	}
 
 	/**
@@ -227,8 +848,7 @@ public class FileReader {
 	 * @return word without symbols.
 	 */
 	public static String getWordWithoutSymbols(String originalWord) {
-		return originalWord.toLowerCase().replaceAll("\\_", "")
-				.replaceAll("\\W", "");
+		return Tokenizer.normalize(originalWord);
 	}
 
 }
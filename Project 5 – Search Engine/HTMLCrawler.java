@@ -93,12 +93,11 @@ public class HTMLCrawler {
 	 */
 	private void parseLine(String buffer, ArrayList<String> words) {
 
-		for (String word : buffer.split("\\s+")) {
-			word = word.toLowerCase().replaceAll("[\\W_]", "").trim();
-
-			if (!word.isEmpty()) {
-				words.add(word);
-			}
+		// every crawler thread reuses its own tokenizer for all the lines.
+		Tokenizer tokenizer = Tokenizer.getLocal();
+		tokenizer.reset(buffer);
+		while (tokenizer.next()) {
+			words.add(tokenizer.word());
 		}
 	}
 
@@ -298,6 +297,9 @@ public class HTMLCrawler {
 
 		@Override
 		public void run() {
+			// register the page once, the local index shares the
+			// DocumentTable of globe index and only keeps the document ID.
+			int docId = dataStore.getDocumentTable().getId(base.toString());
 			//store the word from current page.
 			ArrayList<String> wordList = new ArrayList<String>();
 
@@ -432,26 +434,21 @@ public class HTMLCrawler {
 
 				// parse words
 				if (wordList.size() > 0) {
-					InvertedIndex localIndex = new InvertedIndex();
+					DocumentIndexBuilder builder = new DocumentIndexBuilder(
+							docId);
 					int position = 0;
 					for (int i = 0; i < wordList.size(); i++) {
 
-						if (getWordWithoutSymbols(wordList.get(i)).isEmpty()) {
-							continue;
-						} else {
+						// the words are already normalized by parseLine.
+						// store the word into the builder of this page.
+						builder.add(wordList.get(i), position);
 
-							// call indexData method to store the word.
-							localIndex.indexData(base.toString(),
-									getWordWithoutSymbols(wordList.get(i)),
-									position);
-
-							position++;
-						}
+						position++;
 
 					}
 					// after dealing with the current page, add all local
 					// content to dataStore.
-					dataStore.addAllIndex(localIndex, base.toString());
+					dataStore.addDocument(builder);
 				}
 				// after all the processing, decrease the number of thread
 				updatePending(-1);
@@ -478,7 +475,6 @@ public class HTMLCrawler {
 	 * @return word without symbols.
 	 */
 	public static String getWordWithoutSymbols(String originalWord) {
-		return originalWord.toLowerCase().replaceAll("\\_", "")
-				.replaceAll("\\W", "");
+		return Tokenizer.normalize(originalWord);
 	}
 }
@@ -0,0 +1,278 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * This class IndexManifest remembers the size, the last modified time and a
+ * hash of the content of every indexed file, so after a restart only the files
+ * which are changed need to be read again.
+ *
+ * A file whose size and time are the same is not changed. If only the time is
+ * changed, the hash tells whether the content is really changed, so a file
+ * which is just touched or copied again is not read.
+ *
+ * The manifest must be saved and loaded together with the index file, so it
+ * always describes the same files as the saved index.
+ *
+ * <pre>
+ * header:  int MAGIC, int VERSION, int file count
+ * files:   for every file: string path, long size, long modified time,
+ *          long hash
+ * footer:  long checksum
+ * </pre>
+ *
+ * A string is written by IndexSnapshot.writeString, an int byte length and
+ * its UTF-8 bytes.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class IndexManifest {
+
+	/**
+	 * The first int of the file, the bytes are "SMAN".
+	 */
+	public static final int MAGIC = 0x534D414E;
+
+	/**
+	 * The version of the file format, it must be changed if the format is
+	 * changed.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * The entry of every file by its absolute path.
+	 */
+	private HashMap<String, Entry> entries;
+
+	/**
+	 * The constructor of IndexManifest, it is empty.
+	 */
+	public IndexManifest() {
+		entries = new HashMap<String, Entry>();
+	}
+
+	/**
+	 * @param path
+	 *            is the absolute path of the file.
+	 * @return the entry of the file, or null if it is not indexed.
+	 */
+	public synchronized Entry get(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * @param path
+	 *            is the absolute path of the file.
+	 * @param entry
+	 *            is the entry of the file as it is indexed.
+	 */
+	public synchronized void put(String path, Entry entry) {
+		entries.put(path, entry);
+	}
+
+	/**
+	 * @param path
+	 *            is the absolute path of the file.
+	 * @return true if the file was in the manifest.
+	 */
+	public synchronized boolean remove(String path) {
+		return entries.remove(path) != null;
+	}
+
+	/**
+	 * @return a copy of the paths of all the files.
+	 */
+	public synchronized List<String> getPaths() {
+		return new ArrayList<String>(entries.keySet());
+	}
+
+	/**
+	 * @return the number of files.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Save the manifest into a binary file.
+	 *
+	 * @param path
+	 *            is the path of file.
+	 * @throws IOException
+	 */
+	public synchronized void save(String path) throws IOException {
+		CRC32 checksum = new CRC32();
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+				new BufferedOutputStream(new FileOutputStream(path)), checksum));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (String file : entries.keySet()) {
+				Entry entry = entries.get(file);
+				IndexSnapshot.writeString(out, file);
+				out.writeLong(entry.getSize());
+				out.writeLong(entry.getModified());
+				out.writeLong(entry.getHash());
+			}
+			out.flush();
+			out.writeLong(checksum.getValue());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load a manifest from a binary file saved by the save method.
+	 *
+	 * @param path
+	 *            is the path of file.
+	 * @return the loaded manifest.
+	 * @throws IOException
+	 *             if the file could not be read, or it is not a valid
+	 *             manifest file.
+	 */
+	public static IndexManifest load(String path) throws IOException {
+		long fileLength = new File(path).length();
+		CRC32 checksum = new CRC32();
+		DataInputStream in = new DataInputStream(new CheckedInputStream(
+				new BufferedInputStream(new FileInputStream(path)), checksum));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a manifest file: " + path);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported manifest file version "
+						+ version + ": " + path);
+			}
+			int count = in.readInt();
+			if (count < 0) {
+				throw new IOException("Manifest file is damaged: " + path);
+			}
+			IndexManifest manifest = new IndexManifest();
+			for (int i = 0; i < count; i++) {
+				String file = IndexSnapshot.readString(in, fileLength);
+				manifest.put(file,
+						new Entry(in.readLong(), in.readLong(), in.readLong()));
+			}
+			long expected = checksum.getValue();
+			if (in.readLong() != expected) {
+				throw new IOException("Manifest file is damaged: " + path);
+			}
+			return manifest;
+		} catch (EOFException ex) {
+			throw new IOException("Manifest file is damaged: " + path, ex);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * This class Entry is the size, the last modified time and the hash of
+	 * one file when it was indexed.
+	 *
+	 */
+	public static class Entry {
+
+		/**
+		 * The bytes read for the hash at a time.
+		 */
+		private static final int BUFFER_SIZE = 64 * 1024;
+
+		/**
+		 * The size of the file, its last modified time and the CRC32 of its
+		 * content.
+		 */
+		private long size;
+		private long modified;
+		private long hash;
+
+		/**
+		 * Constructor of Entry.
+		 *
+		 * @param size
+		 *            is the size of the file.
+		 * @param modified
+		 *            is the last modified time of the file.
+		 * @param hash
+		 *            is the CRC32 of the content.
+		 */
+		public Entry(long size, long modified, long hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+
+		/**
+		 * Read a file and make its entry.
+		 *
+		 * @param file
+		 *            is the file.
+		 * @return the entry of the file as it is now.
+		 * @throws IOException
+		 */
+		public static Entry read(File file) throws IOException {
+			// the time is taken before reading, so a change while reading is
+			// seen as a new time next time.
+			long size = file.length();
+			long modified = file.lastModified();
+			CRC32 crc = new CRC32();
+			FileInputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int count;
+				while ((count = in.read(buffer)) > 0) {
+					crc.update(buffer, 0, count);
+				}
+			} finally {
+				in.close();
+			}
+			return new Entry(size, modified, crc.getValue());
+		}
+
+		/**
+		 * @param file
+		 *            is the file.
+		 * @return true if the size and time of the file are still the same,
+		 *         then the file is not changed.
+		 */
+		public boolean matches(File file) {
+			return file.length() == size && file.lastModified() == modified;
+		}
+
+		/**
+		 * @return the size of the file.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the last modified time of the file.
+		 */
+		public long getModified() {
+			return modified;
+		}
+
+		/**
+		 * @return the CRC32 of the content.
+		 */
+		public long getHash() {
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,309 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * This class IndexSegment is an immutable part of the InvertedIndex. Every
+ * local index is flushed as a new segment, and small segments are merged into
+ * bigger ones in the background. The words are kept in a TermTrie, so all the
+ * words with a prefix are found at once without any lock. An exact word is
+ * found in a hash dictionary next to the trie.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class IndexSegment {
+
+	/**
+	 * All the words of this segment, the index of a word in the trie is the
+	 * index of its PostingList.
+	 */
+	private TermTrie dictionary;
+
+	/**
+	 * The index of every word for exact search. It is only built when the
+	 * first exact word is searched, because most segments are merged soon
+	 * and never searched exactly.
+	 */
+	private volatile HashMap<String, Integer> exactTerms;
+
+	/**
+	 * The PostingList of every word, at the same index as the word in terms.
+	 */
+	private PostingList[] postings;
+
+	/**
+	 * The total number of documents in all the PostingLists, used for
+	 * deciding which segments are similar in size and should be merged.
+	 */
+	private long size;
+
+	/**
+	 * The constructor of IndexSegment.
+	 *
+	 * @param terms
+	 *            is the words in sorted order.
+	 * @param postings
+	 *            is the PostingList of every word. The lists must not be
+	 *            changed after the segment is created.
+	 */
+	public IndexSegment(String[] terms, PostingList[] postings) {
+		this.dictionary = new TermTrie(terms);
+		this.postings = postings;
+		size = 0;
+		for (PostingList list : postings) {
+			size += list.size();
+		}
+	}
+
+	/**
+	 * @return the number of words in this segment.
+	 */
+	public int getTermCount() {
+		return postings.length;
+	}
+
+	/**
+	 * @param i
+	 *            is the index of word.
+	 * @return the word, which is built from the trie every time.
+	 */
+	public String getTerm(int i) {
+		return dictionary.getTerm(i);
+	}
+
+	/**
+	 * @return all the words in sorted order, built from the trie in one walk.
+	 */
+	public String[] getTerms() {
+		return dictionary.getTerms();
+	}
+
+	/**
+	 * Find an exact word in the hash dictionary in constant time.
+	 *
+	 * @param word
+	 *            is the word to find.
+	 * @return the index of the word, or -1 if it is not in this segment.
+	 */
+	public int indexOf(String word) {
+		HashMap<String, Integer> terms = exactTerms;
+		if (terms == null) {
+			terms = buildExactTerms();
+		}
+		Integer t = terms.get(word);
+		return t == null ? -1 : t;
+	}
+
+	/**
+	 * Build the hash dictionary once, the segment is never changed so it is
+	 * always the same.
+	 *
+	 * @return the index of every word.
+	 */
+	private synchronized HashMap<String, Integer> buildExactTerms() {
+		if (exactTerms == null) {
+			String[] terms = dictionary.getTerms();
+			HashMap<String, Integer> map = new HashMap<String, Integer>(
+					terms.length * 2);
+			for (int t = 0; t < terms.length; t++) {
+				map.put(terms[t], t);
+			}
+			exactTerms = map;
+		}
+		return exactTerms;
+	}
+
+	/**
+	 * @return the dictionary of the words.
+	 */
+	public TermTrie getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * @param i
+	 *            is the index of word.
+	 * @return the PostingList of the word.
+	 */
+	public PostingList getPostingList(int i) {
+		return postings[i];
+	}
+
+	/**
+	 * @return the total number of documents in all the PostingLists.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Merge some segments into a new one. The PostingLists of the same word
+	 * are joined in the order of the given segments, and a document found in
+	 * more than one of them becomes one entry.
+	 *
+	 * @param segments
+	 *            is the segments to merge.
+	 * @param docMap
+	 *            is used for changing the document IDs if the segments use
+	 *            another DocumentTable, the new ID of document i is docMap[i].
+	 *            It is null if the IDs do not change.
+	 * @param compressed
+	 *            is true if the positions of new segment should be compressed.
+	 * @return the new segment.
+	 */
+	public static IndexSegment merge(IndexSegment[] segments, int[] docMap,
+			boolean compressed) {
+		return merge(segments, docMap, null, compressed);
+	}
+
+	/**
+	 * Merge some segments into a new one and leave out the retired
+	 * documents, a word with no document left is left out too.
+	 *
+	 * @param segments
+	 *            is the segments to merge.
+	 * @param docMap
+	 *            is used for changing the document IDs, the new ID of document
+	 *            i is docMap[i], and a document whose new ID is -1 is left
+	 *            out. It is null if the IDs do not change.
+	 * @param retired
+	 *            is the bits of the retired document IDs from the
+	 *            DocumentTable, or null if none is retired.
+	 * @param compressed
+	 *            is true if the positions of new segment should be compressed.
+	 * @return the new segment.
+	 */
+	public static IndexSegment merge(IndexSegment[] segments, int[] docMap,
+			long[] retired, boolean compressed) {
+		// every cursor points to the next word of one segment, the queue
+		// always gives the cursor with smallest word first.
+		PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>();
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i].getTermCount() > 0) {
+				queue.add(new Cursor(segments[i], i));
+			}
+		}
+
+		ArrayList<String> terms = new ArrayList<String>();
+		ArrayList<PostingList> postings = new ArrayList<PostingList>();
+
+		while (!queue.isEmpty()) {
+			Cursor cursor = queue.poll();
+			String term = cursor.getTerm();
+			PostingList list = new PostingList(compressed);
+			// all the cursors pointing to the same word come out one after
+			// another in the order of segments.
+			while (true) {
+				PostingList other = cursor.getPostingList();
+				for (int i = 0; i < other.size(); i++) {
+					int docId = other.getDocId(i);
+					if (DocumentTable.isRetired(retired, docId)) {
+						continue;
+					}
+					int newId = docMap == null ? docId : docMap[docId];
+					if (newId >= 0) {
+						list.addAll(other, i, newId);
+					}
+				}
+				if (cursor.next()) {
+					queue.add(cursor);
+				}
+				if (queue.isEmpty() || !queue.peek().getTerm().equals(term)) {
+					break;
+				}
+				cursor = queue.poll();
+			}
+			// the lists of later segments may have smaller document IDs, the
+			// documents must be sorted for intersecting lists.
+			if (list.size() == 0) {
+				continue;
+			}
+			if (!list.isSorted()) {
+				list = list.sortByDocId();
+			}
+			// a document found in more than one segment becomes one entry.
+			list = list.joinDocuments();
+			terms.add(term);
+			postings.add(list);
+		}
+
+		return new IndexSegment(terms.toArray(new String[terms.size()]),
+				postings.toArray(new PostingList[postings.size()]));
+	}
+
+	/**
+	 * This class Cursor is used for walking through the words of one segment
+	 * while merging.
+	 *
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+
+		/**
+		 * The segment to walk through.
+		 */
+		private IndexSegment segment;
+
+		/**
+		 * The order of the segment in the merge.
+		 */
+		private int order;
+
+		/**
+		 * The words of the segment, they are built once because building one
+		 * word from the trie is slow.
+		 */
+		private String[] terms;
+
+		/**
+		 * The index of current word.
+		 */
+		private int index;
+
+		/**
+		 * @param segment
+		 *            is the segment to walk through.
+		 * @param order
+		 *            is the order of the segment in the merge.
+		 */
+		public Cursor(IndexSegment segment, int order) {
+			this.segment = segment;
+			this.order = order;
+			this.terms = segment.getTerms();
+			this.index = 0;
+		}
+
+		/**
+		 * @return the current word.
+		 */
+		public String getTerm() {
+			return terms[index];
+		}
+
+		/**
+		 * @return the PostingList of current word.
+		 */
+		public PostingList getPostingList() {
+			return segment.postings[index];
+		}
+
+		/**
+		 * Move to the next word.
+		 *
+		 * @return false if there is no more word.
+		 */
+		public boolean next() {
+			index++;
+			return index < terms.length;
+		}
+
+		// the smaller word first, the same word in the earlier segment first.
+		public int compareTo(Cursor other) {
+			int result = getTerm().compareTo(other.getTerm());
+			if (result == 0) {
+				return order - other.order;
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,366 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * This class IndexSnapshot is used for saving the InvertedIndex into a binary
+ * file and loading it back, so the index does not need to be built again from
+ * the text files or web pages every time the program starts.
+ *
+ * The file has a header, the DocumentTable, the postings of every word, the
+ * words, a table of the offsets of the words, the TermTrie of the words and a
+ * footer. All numbers are
+ * written by DataOutputStream, the positions are encoded by PositionCodec. A
+ * string is an int byte length and its UTF-8 bytes, so a path or a word is
+ * not limited to 65535 bytes like DataOutputStream.writeUTF. The last 8 bytes
+ * are the CRC32 checksum of everything before them.
+ *
+ * <pre>
+ * header:   int MAGIC, int VERSION, int document count, int word count
+ * docs:     string path of every document, in the order of document ID
+ * postings: for every word: int document count, then for every document:
+ *           int document ID, int frequency, int first position,
+ *           int byte length, encoded positions
+ * words:    for every word in sorted order: string word, long postings offset
+ * table:    long offset of every entry in words
+ * trie:     int node count, char label of every node, int end of every node,
+ *           int rank of every node and one more rank
+ * footer:   long offset of table, long offset of trie, long checksum
+ * </pre>
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class IndexSnapshot {
+
+	/**
+	 * The first int of the file, the bytes are "SIDX".
+	 */
+	public static final int MAGIC = 0x53494458;
+
+	/**
+	 * The version of the file format, it must be changed if the format is
+	 * changed.
+	 */
+	public static final int VERSION = 3;
+
+	/**
+	 * The length of the header.
+	 */
+	public static final int HEADER_SIZE = 16;
+
+	/**
+	 * The length of the footer.
+	 */
+	public static final int FOOTER_SIZE = 24;
+
+	/**
+	 * Save the index into a binary file. The deleted documents are left out
+	 * and the other documents get new IDs without gaps.
+	 *
+	 * @param index
+	 *            is the index to save.
+	 * @param path
+	 *            is the path of file.
+	 * @throws IOException
+	 */
+	public static void save(InvertedIndex index, String path)
+			throws IOException {
+
+		IndexSegment segment = index.getSnapshot();
+		DocumentTable documents = index.getDocumentTable();
+		// the map is made after the snapshot, so it knows every document of
+		// the snapshot.
+		int[] docMap = documents.getCompactMap();
+		if (docMap != null) {
+			segment = IndexSegment.merge(new IndexSegment[] { segment }, docMap,
+					index.isCompressed());
+		}
+
+		CRC32 checksum = new CRC32();
+		CountingOutputStream counter = new CountingOutputStream(
+				new CheckedOutputStream(new BufferedOutputStream(
+						new FileOutputStream(path)), checksum));
+		DataOutputStream out = new DataOutputStream(counter);
+
+		try {
+			int docCount = docMap == null ? documents.size() : docMap.length;
+			int liveCount = docCount;
+			if (docMap != null) {
+				liveCount = 0;
+				for (int i = 0; i < docCount; i++) {
+					if (docMap[i] >= 0) {
+						liveCount++;
+					}
+				}
+			}
+			int termCount = segment.getTermCount();
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(liveCount);
+			out.writeInt(termCount);
+
+			for (int i = 0; i < docCount; i++) {
+				if (docMap == null || docMap[i] >= 0) {
+					writeString(out, documents.getDocument(i));
+				}
+			}
+
+			long[] postingOffsets = new long[termCount];
+			for (int t = 0; t < termCount; t++) {
+				postingOffsets[t] = counter.getCount();
+				PostingList list = segment.getPostingList(t);
+
+				out.writeInt(list.size());
+				for (int i = 0; i < list.size(); i++) {
+					byte[] encoded = list.getEncodedPositions(i);
+					out.writeInt(list.getDocId(i));
+					out.writeInt(list.getFrequency(i));
+					out.writeInt(list.getFirstPosition(i));
+					out.writeInt(encoded.length);
+					out.write(encoded);
+				}
+			}
+
+			String[] terms = segment.getTerms();
+			long[] termOffsets = new long[termCount];
+			for (int t = 0; t < termCount; t++) {
+				termOffsets[t] = counter.getCount();
+				writeString(out, terms[t]);
+				out.writeLong(postingOffsets[t]);
+			}
+
+			long tableOffset = counter.getCount();
+			for (int t = 0; t < termCount; t++) {
+				out.writeLong(termOffsets[t]);
+			}
+
+			// the trie is saved, so a mapped index could find the words with a
+			// prefix without building it.
+			long trieOffset = counter.getCount();
+			segment.getDictionary().write(out);
+
+			out.writeLong(tableOffset);
+			out.writeLong(trieOffset);
+			// the checksum itself is not part of the checksum.
+			out.writeLong(checksum.getValue());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load an index from a binary file saved by the save method.
+	 *
+	 * @param path
+	 *            is the path of file.
+	 * @param compressed
+	 *            is true if the positions of loaded index should be
+	 *            compressed.
+	 * @return the loaded index.
+	 * @throws IOException
+	 *             if the file could not be read, or it is not a valid index
+	 *             file.
+	 */
+	public static InvertedIndex load(String path, boolean compressed)
+			throws IOException {
+
+		long fileLength = new File(path).length();
+		CRC32 checksum = new CRC32();
+		DataInputStream in = new DataInputStream(new CheckedInputStream(
+				new BufferedInputStream(new FileInputStream(path)), checksum));
+
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not an index file: " + path);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported index file version "
+						+ version + ": " + path);
+			}
+			int docCount = in.readInt();
+			int termCount = in.readInt();
+			check(docCount >= 0 && termCount >= 0, path);
+
+			DocumentTable documents = new DocumentTable();
+			for (int i = 0; i < docCount; i++) {
+				documents.getId(readString(in, fileLength));
+			}
+
+			PostingList[] postings = new PostingList[termCount];
+			for (int t = 0; t < termCount; t++) {
+				PostingList list = new PostingList(compressed);
+				int size = in.readInt();
+				check(size >= 0 && size <= docCount, path);
+				for (int i = 0; i < size; i++) {
+					int docId = in.readInt();
+					int count = in.readInt();
+					in.readInt();
+					int length = in.readInt();
+					check(docId >= 0 && docId < docCount && count > 0
+							&& length >= count
+							&& length <= count * PositionCodec.MAX_VARINT_SIZE,
+							path);
+					byte[] encoded = new byte[length];
+					in.readFully(encoded);
+					list.addEncoded(docId, encoded, count);
+				}
+				postings[t] = list;
+			}
+
+			String[] terms = new String[termCount];
+			for (int t = 0; t < termCount; t++) {
+				terms[t] = readString(in, fileLength);
+				in.readLong();
+			}
+
+			// the offset table, the trie and footer are only needed for
+			// reading the file without loading it, the trie is built again
+			// from the words.
+			for (int t = 0; t < termCount; t++) {
+				in.readLong();
+			}
+			int nodeCount = in.readInt();
+			check(nodeCount > 0, path);
+			long trieLength = 10L * nodeCount + 4;
+			while (trieLength > 0) {
+				int skipped = in.skipBytes((int) Math.min(trieLength,
+						Integer.MAX_VALUE));
+				if (skipped <= 0) {
+					throw new EOFException();
+				}
+				trieLength -= skipped;
+			}
+			in.readLong();
+			in.readLong();
+
+			long expected = checksum.getValue();
+			if (in.readLong() != expected) {
+				throw new IOException("Index file is damaged: " + path);
+			}
+
+			InvertedIndex index = new InvertedIndex(documents, compressed);
+			index.addSegment(new IndexSegment(terms, postings));
+			return index;
+		} catch (EOFException ex) {
+			throw new IOException("Index file is damaged: " + path, ex);
+		} catch (RuntimeException ex) {
+			// damaged positions could make the decoder read out of range.
+			throw new IOException("Index file is damaged: " + path, ex);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Stop loading if a value read from the file is not possible, the file
+	 * is damaged and the checksum would not match anyway.
+	 *
+	 * @param valid
+	 *            is false if the value is not possible.
+	 * @param path
+	 *            is the path of file.
+	 * @throws IOException
+	 */
+	private static void check(boolean valid, String path) throws IOException {
+		if (!valid) {
+			throw new IOException("Index file is damaged: " + path);
+		}
+	}
+
+	/**
+	 * Write a string as an int byte length and its UTF-8 bytes.
+	 *
+	 * @param out
+	 *            is the stream to write into.
+	 * @param value
+	 *            is the string to write.
+	 * @throws IOException
+	 */
+	public static void writeString(DataOutputStream out, String value)
+			throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read a string written by the writeString method.
+	 *
+	 * @param in
+	 *            is the stream to read from.
+	 * @param limit
+	 *            is the length of file, a string could not be longer.
+	 * @return the string.
+	 * @throws IOException
+	 *             if the length is not possible, the string would go past the
+	 *             end of file, so it is an EOFException.
+	 */
+	public static String readString(DataInputStream in, long limit)
+			throws IOException {
+		int length = in.readInt();
+		// a damaged length must not make a huge array before the end of file
+		// is found.
+		if (length < 0 || length > limit) {
+			throw new EOFException("String length out of range: " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * This class CountingOutputStream counts the bytes written, so we know
+	 * the offset of every part of the file.
+	 *
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		/**
+		 * The number of bytes written.
+		 */
+		private long count;
+
+		/**
+		 * @param out
+		 *            is the stream to write into.
+		 */
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+			count = 0;
+		}
+
+		/**
+		 * @return the number of bytes written.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
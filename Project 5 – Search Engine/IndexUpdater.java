@@ -0,0 +1,407 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class IndexUpdater keeps the index the same as the text files of a
+ * directory without building it again. The files are compared with the
+ * IndexManifest, only the new and changed files are read again and the
+ * deleted files are deleted from the index, so the time of an update depends
+ * on the files changed and not on the size of the index.
+ *
+ * After a restart, update finds the changes made while the program was not
+ * running. While it is running, a watcher thread gets the changes from the
+ * file system and updates the index a moment after the files stop changing.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class IndexUpdater {
+
+	/**
+	 * The milliseconds without any new change before the changes are
+	 * applied, so a file written in many steps is only read once.
+	 */
+	private static final long QUIET_TIME = 200;
+
+	/**
+	 * The changes are applied at least this often, even if the files keep
+	 * changing.
+	 */
+	private static final long MAX_DELAY = 2000;
+
+	/**
+	 * The index to update.
+	 */
+	private InvertedIndex index;
+
+	/**
+	 * The threads which read the files.
+	 */
+	private WorkQueue workQueue;
+
+	/**
+	 * The files in the index.
+	 */
+	private IndexManifest manifest;
+
+	/**
+	 * True if the files are read as mapped UTF-8 bytes.
+	 */
+	private boolean mappedMode;
+
+	/**
+	 * The constructor of IndexUpdater.
+	 *
+	 * @param index
+	 *            is the index to update.
+	 * @param workQueue
+	 *            is the threads which read the files.
+	 * @param manifest
+	 *            is the files already in the index, it is empty for a new
+	 *            index.
+	 */
+	public IndexUpdater(InvertedIndex index, WorkQueue workQueue,
+			IndexManifest manifest) {
+		this.index = index;
+		this.workQueue = workQueue;
+		this.manifest = manifest;
+		this.mappedMode = false;
+	}
+
+	/**
+	 * @param mappedMode
+	 *            is true if the files are read as mapped UTF-8 bytes.
+	 */
+	public void setMappedMode(boolean mappedMode) {
+		this.mappedMode = mappedMode;
+	}
+
+	/**
+	 * @return the files in the index.
+	 */
+	public IndexManifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Save the index and the manifest while no update is running, so the
+	 * manifest describes exactly the saved index.
+	 *
+	 * @param indexPath
+	 *            is the path of the index file.
+	 * @param manifestPath
+	 *            is the path of the manifest file, or null if it is not
+	 *            saved.
+	 * @throws IOException
+	 */
+	public synchronized void save(String indexPath, String manifestPath)
+			throws IOException {
+		IndexSnapshot.save(index, indexPath);
+		if (manifestPath != null) {
+			manifest.save(manifestPath);
+		}
+	}
+
+	/**
+	 * Compare all the text files of a directory with the manifest and update
+	 * the index. Every file is only checked by its size and time, unless it
+	 * is changed.
+	 *
+	 * @param dir
+	 *            is the directory.
+	 * @return the number of files added, changed or deleted.
+	 */
+	public synchronized int update(File dir) {
+		List<File> files = DirectoryParser.getFileList(dir);
+		HashSet<String> found = new HashSet<String>();
+		List<File> changed = new ArrayList<File>();
+		List<IndexManifest.Entry> entries = new ArrayList<IndexManifest.Entry>();
+		for (File file : files) {
+			found.add(file.getAbsolutePath());
+			check(file, changed, entries);
+		}
+
+		// the files under the directory which are not found any more.
+		int count = 0;
+		String prefix = dir.getAbsolutePath() + File.separator;
+		for (String path : manifest.getPaths()) {
+			if (path.startsWith(prefix) && !found.contains(path)) {
+				count += delete(path);
+			}
+		}
+		return count + apply(changed, entries);
+	}
+
+	/**
+	 * Update the index for some paths which are changed, they could be files
+	 * or directories, and they may not exist any more.
+	 *
+	 * @param paths
+	 *            is the absolute paths.
+	 * @return the number of files added, changed or deleted.
+	 */
+	public synchronized int update(Collection<String> paths) {
+		List<File> changed = new ArrayList<File>();
+		List<IndexManifest.Entry> entries = new ArrayList<IndexManifest.Entry>();
+		int count = 0;
+		for (String path : paths) {
+			File file = new File(path);
+			if (file.isDirectory()) {
+				count += update(file);
+			} else if (file.isFile()) {
+				if (DirectoryParser.isTxtFile(file)) {
+					check(file, changed, entries);
+				}
+			} else {
+				// a deleted file, or a deleted directory with all its files.
+				count += delete(path);
+				String prefix = path + File.separator;
+				for (String indexed : manifest.getPaths()) {
+					if (indexed.startsWith(prefix)) {
+						count += delete(indexed);
+					}
+				}
+			}
+		}
+		return count + apply(changed, entries);
+	}
+
+	/**
+	 * Check one file with the manifest.
+	 *
+	 * @param file
+	 *            is the text file.
+	 * @param changed
+	 *            is the files to read, the file is added if it is new or
+	 *            changed.
+	 * @param entries
+	 *            is the entries of the files to read.
+	 */
+	private void check(File file, List<File> changed,
+			List<IndexManifest.Entry> entries) {
+		String path = file.getAbsolutePath();
+		IndexManifest.Entry old = manifest.get(path);
+		if (old != null && old.matches(file)) {
+			return;
+		}
+		try {
+			IndexManifest.Entry entry = IndexManifest.Entry.read(file);
+			if (old != null && old.getHash() == entry.getHash()
+					&& old.getSize() == entry.getSize()) {
+				// only the time is changed, the words are the same.
+				manifest.put(path, entry);
+				return;
+			}
+			changed.add(file);
+			entries.add(entry);
+		} catch (IOException ex) {
+			System.err.println("Error: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Read the changed files and replace their old words.
+	 *
+	 * @param changed
+	 *            is the files to read.
+	 * @param entries
+	 *            is the entries of the files.
+	 * @return the number of files read.
+	 */
+	private int apply(List<File> changed, List<IndexManifest.Entry> entries) {
+		if (changed.isEmpty()) {
+			return 0;
+		}
+		FileReader reader = new FileReader(index, workQueue);
+		reader.setMappedMode(mappedMode);
+		Set<String> failed = reader.replaceFiles(changed);
+		int count = 0;
+		for (int i = 0; i < changed.size(); i++) {
+			String path = changed.get(i).getAbsolutePath();
+			// a file which could not be read keeps its old entry, so it is
+			// read again by the next update.
+			if (!failed.contains(path)) {
+				manifest.put(path, entries.get(i));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Delete one file from the index and the manifest.
+	 *
+	 * @param path
+	 *            is the absolute path of the file.
+	 * @return 1 if the file was indexed, 0 if not.
+	 */
+	private int delete(String path) {
+		if (!manifest.remove(path)) {
+			return 0;
+		}
+		index.deleteDocument(path);
+		return 1;
+	}
+
+	/**
+	 * Start a thread which updates the index whenever the files of the
+	 * directory are changed. It does not stop the program from exiting.
+	 *
+	 * @param dir
+	 *            is the directory. The watching starts before this method
+	 *            returns, so an update after it misses no change.
+	 * @throws IOException
+	 *             if the directory could not be watched.
+	 */
+	public void watch(File dir) throws IOException {
+		new Watcher(dir).start();
+	}
+
+	/**
+	 * This inner class Watcher is the thread which gets the changes of the
+	 * files from the WatchService. Every directory is watched on its own, so
+	 * a new directory is watched as soon as it is created.
+	 *
+	 * @author ANG ZHANG
+	 *
+	 */
+	private class Watcher extends Thread {
+
+		/**
+		 * The directory watched.
+		 */
+		private File root;
+
+		/**
+		 * The service which gives the changes.
+		 */
+		private WatchService service;
+
+		/**
+		 * The directory of every key.
+		 */
+		private HashMap<WatchKey, Path> directories;
+
+		/**
+		 * Constructor of Watcher, all the directories are registered before
+		 * it returns, so no change after it is missed.
+		 *
+		 * @param root
+		 *            is the directory watched.
+		 * @throws IOException
+		 */
+		public Watcher(File root) throws IOException {
+			this.root = root.getAbsoluteFile();
+			service = FileSystems.getDefault().newWatchService();
+			directories = new HashMap<WatchKey, Path>();
+			register(this.root);
+			setDaemon(true);
+		}
+
+		/**
+		 * Watch a directory and all its sub-directories.
+		 *
+		 * @param dir
+		 *            is the directory.
+		 * @throws IOException
+		 */
+		private void register(File dir) throws IOException {
+			Path path = dir.toPath();
+			WatchKey key = path.register(service,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			directories.put(key, path);
+			File[] files = DirectoryParser.listTxt(dir);
+			if (files != null) {
+				for (File file : files) {
+					if (file.isDirectory()) {
+						register(file);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					WatchKey key = service.take();
+					LinkedHashSet<String> paths = new LinkedHashSet<String>();
+					boolean overflow = false;
+					// collect the changes until the files are quiet for a
+					// moment.
+					long deadline = System.currentTimeMillis() + MAX_DELAY;
+					while (key != null) {
+						overflow |= collect(key, paths);
+						long wait = Math.min(QUIET_TIME, deadline
+								- System.currentTimeMillis());
+						key = wait > 0 ? service.poll(wait,
+								TimeUnit.MILLISECONDS) : null;
+					}
+					if (overflow) {
+						// some changes are lost, so check all the files.
+						update(root);
+					} else {
+						update(paths);
+					}
+				}
+			} catch (InterruptedException ex) {
+				return;
+			} catch (ClosedWatchServiceException ex) {
+				return;
+			}
+		}
+
+		/**
+		 * Take the changes of one key, a new directory is watched at once.
+		 *
+		 * @param key
+		 *            is the key of a directory.
+		 * @param paths
+		 *            is the changed paths.
+		 * @return true if some changes were lost.
+		 */
+		private boolean collect(WatchKey key, LinkedHashSet<String> paths) {
+			boolean overflow = false;
+			Path dir = directories.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW
+						|| dir == null) {
+					overflow = true;
+					continue;
+				}
+				File file = dir.resolve((Path) event.context()).toFile();
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+						&& file.isDirectory()) {
+					try {
+						register(file);
+					} catch (IOException ex) {
+						System.err.println("Error: " + ex.getMessage());
+					}
+				}
+				paths.add(file.getAbsolutePath());
+			}
+			if (!key.reset()) {
+				// the directory is deleted.
+				directories.remove(key);
+			}
+			return overflow;
+		}
+	}
+}
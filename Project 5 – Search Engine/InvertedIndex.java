@@ -3,11 +3,16 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class is data structure for storing data obtained from text files.
@@ -18,25 +23,159 @@ import java.util.TreeMap;
 public class InvertedIndex {
 
 	/**
-	 * This TreeMap named indexTreeMap is used for storing all single words
-	 * existing in the text files, the outer key is the word, the value is the
-	 * nested map storing file path and the position in related text file.
+	 * The number of segments of similar size which are merged into one
+	 * segment by the background merger.
 	 */
-	private TreeMap<String, TreeMap<String, LinkedList<Integer>>> indexTreeMap;
+	public static final int MERGE_FACTOR = 4;
+
+	/**
+	 * A search word ending with this mark is looked up as an exact word
+	 * instead of a prefix, like "apple$" only matches apple but not apples.
+	 */
+	public static final String EXACT_MARK = "$";
+
+	/**
+	 * This TreeMap named termIds is used for storing all single words existing
+	 * in the text files, the key is the word and the value is the term ID of
+	 * the word. The term ID is the index of the word's PostingList in
+	 * postings.
+	 */
+	private TreeMap<String, Integer> termIds;
+
+	/**
+	 * This HashMap has the same words and term IDs as termIds, it is used for
+	 * finding an exact word in constant time without walking the tree.
+	 */
+	private HashMap<String, Integer> exactIds;
+
+	/**
+	 * This list stores the PostingList of every word, which records the
+	 * documents containing the word and the positions in every document.
+	 */
+	private ArrayList<PostingList> postings;
+
+	/**
+	 * This DocumentTable gives every file path or web URL a document ID, the
+	 * postings only store the document ID.
+	 */
+	private DocumentTable documents;
+
+	/**
+	 * This boolean is true if the positions in the PostingLists are
+	 * compressed by PositionCodec.
+	 */
+	private boolean compressed;
 
 	/**
 	 * This MultiReadersLock type indexLock is only for locking shared method
-	 * different threads probably access at same time.
+	 * different threads probably access at same time. It only protects the
+	 * words added by indexData, the segments never need a lock.
 	 */
 	private MultiReadersLock indexLock;
 
+	/**
+	 * All the live segments of this index, from the oldest to the newest. The
+	 * array is never changed, adding or merging segments replaces the whole
+	 * array, so readers could use the array they get without any lock. The
+	 * indexing threads only meet at this one compare-and-set, so the index
+	 * does not need a lock for every group of words.
+	 */
+	private AtomicReference<IndexSegment[]> segments;
+
+	/**
+	 * The background thread merging the segments, it is started when the
+	 * first segment is added.
+	 */
+	private MergeWorker merger;
+
+	/**
+	 * True after shutdown, then no merger is started any more.
+	 */
+	private boolean closed;
+
+	/**
+	 * The version of the data in this index, it moves forward after every
+	 * change of the words or documents, so cached search results know when
+	 * they are out of date. Merging segments does not change it.
+	 */
+	private AtomicLong version;
+
+	/**
+	 * The added up results of the short prefixes, or null if they are not
+	 * kept.
+	 */
+	private volatile PrefixIndex prefixIndex;
+
+	/**
+	 * The limits of every search given to its SearchBudget, 0 means no limit.
+	 */
+	private volatile int maxTerms;
+	private volatile long maxPostings;
+	private volatile long timeout;
+
 	/**
 	 * This is the constructor of InvertedIndex.
 	 */
 	public InvertedIndex() {
 
-		indexTreeMap = new TreeMap<String, TreeMap<String, LinkedList<Integer>>>();
+		this(new DocumentTable());
+	}
+
+	/**
+	 * This constructor is used for creating a local index sharing the
+	 * DocumentTable of globe index, so the document IDs are the same and no
+	 * mapping is needed when adding local index to globe index.
+	 * 
+	 * @param documents
+	 *            is the DocumentTable to share.
+	 */
+	public InvertedIndex(DocumentTable documents) {
+
+		this(documents, false);
+	}
+
+	/**
+	 * This constructor is used for creating an index whose positions could be
+	 * compressed, which takes much less memory for big data.
+	 * 
+	 * @param documents
+	 *            is the DocumentTable to use.
+	 * @param compressed
+	 *            is true if the positions should be compressed.
+	 */
+	public InvertedIndex(DocumentTable documents, boolean compressed) {
+
+		termIds = new TreeMap<String, Integer>();
+		exactIds = new HashMap<String, Integer>();
+		postings = new ArrayList<PostingList>();
+		this.documents = documents;
+		this.compressed = compressed;
 		indexLock = new MultiReadersLock();
+		segments = new AtomicReference<IndexSegment[]>(new IndexSegment[0]);
+		version = new AtomicLong(0);
+	}
+
+	/**
+	 * @return the DocumentTable of this index.
+	 */
+	public DocumentTable getDocumentTable() {
+		return documents;
+	}
+
+	/**
+	 * @return the version of the data in this index.
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Move the version forward. It must be called after the change could be
+	 * seen by searching, otherwise a search between the two could be cached
+	 * with the new version.
+	 */
+	void updateVersion() {
+		version.incrementAndGet();
 	}
 
 	/**
@@ -73,44 +212,109 @@ public class InvertedIndex {
 	 *            the places in the every text file.
 	 */
 	public void indexData(String index, String word, int position) {
+
+		indexData(documents.getId(index), word, position);
+
+	}
+
+	/**
+	 * @param docId
+	 *            The document ID of the word from the DocumentTable of this
+	 *            index.
+	 * @param word
+	 *            The String word is the single word obtained from the text
+	 *            file.
+	 * @param position
+	 *            The integer type parameter position is for recording the place
+	 *            in the every text file.
+	 */
+	public void indexData(int docId, String word, int position) {
 		// protect the index data in case of some threads could write it.
 		indexLock.acquireWriteLock();
-		// pathMap
-		TreeMap<String, LinkedList<Integer>> pathMap = new TreeMap<String, LinkedList<Integer>>();
-		// posList
-		LinkedList<Integer> posList = new LinkedList<Integer>();
-		// new word
-		if (!indexTreeMap.containsKey(word)) {
-			posList.add(position + 1);
-
-			pathMap.put(index, posList);
-			indexTreeMap.put(word, pathMap);
-		} // exist word
-		else {
-			pathMap = indexTreeMap.get(word);
-			// see if exiting in new file
-			// yes
-			if (pathMap.get(index) == null) {
-				posList.add(position + 1);
-
-				pathMap.put(index, posList);
-				indexTreeMap.put(word, pathMap);
-			}// no
-			else {
-				// get the position
-				posList = pathMap.get(index);
-				posList.add(position + 1);
-
-				pathMap.put(index, posList);
-				indexTreeMap.put(word, pathMap);
-			}
-		}
+
+		getPostingList(word).add(docId, position + 1);
+
 		// release the lock after the process.
 	    indexLock.releaseWriteLock();
+	    addPrefixes(docId, word, position);
+	    updateVersion();
+	}
+
+	/**
+	 * Keep the search results of all the prefixes up to the length ready, so
+	 * searching a short prefix reads one list instead of all the words
+	 * starting with it. The lists are built from the data already in this
+	 * index and updated by every later change, so it should be called while
+	 * nothing is being added.
+	 * 
+	 * @param length
+	 *            is the length of the longest prefix kept, 0 to keep none.
+	 */
+	public void setPrefixLength(int length) {
+		if (length <= 0) {
+			prefixIndex = null;
+			return;
+		}
+		PrefixIndex prefixes = new PrefixIndex(length);
+		prefixes.add(getSnapshot());
+		prefixIndex = prefixes;
+		updateVersion();
+	}
+
+	/**
+	 * Add one word to the PrefixIndex if it is kept.
+	 * 
+	 * @param docId
+	 *            is the ID of the document.
+	 * @param word
+	 *            is the word.
+	 * @param position
+	 *            is the place of the word in the document, from 0.
+	 */
+	void addPrefixes(int docId, String word, int position) {
+		PrefixIndex prefixes = prefixIndex;
+		if (prefixes != null) {
+			prefixes.add(docId, word, position + 1);
+		}
+	}
+
+	/**
+	 * Add all the words of a new segment to the PrefixIndex if it is kept.
+	 * 
+	 * @param segment
+	 *            is the new segment.
+	 */
+	void addPrefixes(IndexSegment segment) {
+		PrefixIndex prefixes = prefixIndex;
+		if (prefixes != null) {
+			prefixes.add(segment);
+		}
+	}
+
+	/**
+	 * Get the PostingList of the word, a new term ID and PostingList are
+	 * created if the word is new. Must be called with the write lock held.
+	 *
+	 * @param word
+	 *            is the word we want to find.
+	 * @return the PostingList of the word.
+	 */
+	private PostingList getPostingList(String word) {
+		Integer termId = exactIds.get(word);
+		// new word
+		if (termId == null) {
+			termId = postings.size();
+			termIds.put(word, termId);
+			exactIds.put(word, termId);
+			postings.add(new PostingList(compressed));
+		}
+		return postings.get(termId);
 	}
 
 	/**
 	 * This method is for adding different threads' local index to globe index.
+	 * The local index is flushed as a new segment, which only reads the local
+	 * index, so the globe index is not locked and searching is not blocked.
 	 * 
 	 * @param subIndex
 	 *            represents the parameter of local data only from one thread.
@@ -118,34 +322,373 @@ public class InvertedIndex {
 	 *            is address which current thread is handling.
 	 */
 	public void addAllIndex(InvertedIndex subIndex, String filePath) {
-		// Because there may have more than one thread want to call this method,
-		// we need to use lock to control it.
-		indexLock.acquireWriteLock();
-
-		for (Map.Entry<String, TreeMap<String, LinkedList<Integer>>> subEntry : subIndex.indexTreeMap
-				.entrySet()) {
-			// if this word has not been put into globe index.
-			if (!indexTreeMap.containsKey(subEntry.getKey())) {
 
-				indexTreeMap.put(subEntry.getKey(), subEntry.getValue());
-			} else {
-				// old word but new file path, update it.
-				indexTreeMap.get(subEntry.getKey()).put(filePath,
-						subEntry.getValue().get(filePath));
+		// if the local index has its own DocumentTable, the document IDs are
+		// different from globe index, so map every local document ID to globe
+		// one first.
+		int[] docMap = null;
+		if (subIndex.documents != documents) {
+			docMap = new int[subIndex.documents.size()];
+			for (int i = 0; i < docMap.length; i++) {
+				docMap[i] = documents.getId(subIndex.documents.getDocument(i));
 			}
+		}
 
+		addSegment(subIndex.toSegment(docMap, compressed));
+	}
+
+	/**
+	 * This method is for adding the words of one document collected by a
+	 * DocumentIndexBuilder to globe index in one bulk merge. The builder is
+	 * flushed as a new segment like a local index.
+	 * 
+	 * @param builder
+	 *            is the words of one document.
+	 */
+	public void addDocument(DocumentIndexBuilder builder) {
+
+		addSegment(builder.toSegment(compressed));
+	}
+
+	/**
+	 * Replace all the words of a document which is changed. The new words
+	 * are added as a new segment under a new ID, which the searches skip
+	 * until the DocumentTable moves the path to it and deletes the old ID in
+	 * one step. So the document is always found by exactly one of its IDs,
+	 * and the version only moves once. The old postings are dropped when
+	 * their segment is merged.
+	 * 
+	 * @param document
+	 *            is the file path or web URL.
+	 * @param builder
+	 *            is the new words of the document, its ID is from newId of
+	 *            the DocumentTable.
+	 */
+	public void replaceDocument(String document, DocumentIndexBuilder builder) {
+		appendSegment(builder.toSegment(compressed));
+		documents.replace(document, builder.getDocId());
+		updateVersion();
+	}
+
+	/**
+	 * Delete a document from the index. Only its ID is marked as deleted, so
+	 * it takes the same short time for any document, and the searches skip
+	 * its postings until they are dropped by a merge.
+	 * 
+	 * @param document
+	 *            is the file path or web URL.
+	 * @return true if the document was in the index.
+	 */
+	public boolean deleteDocument(String document) {
+		if (documents.delete(document) < 0) {
+			return false;
+		}
+		updateVersion();
+		return true;
+	}
+
+	/**
+	 * Add a segment to this index without locking the index.
+	 * 
+	 * @param segment
+	 *            is the segment using the DocumentTable of this index.
+	 */
+	void addSegment(IndexSegment segment) {
+		if (appendSegment(segment)) {
+			updateVersion();
+		}
+	}
+
+	/**
+	 * Append a segment to the live segments, the version is not changed.
+	 * 
+	 * @param segment
+	 *            is the segment using the DocumentTable of this index.
+	 * @return true if the segment was added, false if it has no words.
+	 */
+	private boolean appendSegment(IndexSegment segment) {
+		if (segment.getTermCount() == 0) {
+			return false;
+		}
+		addPrefixes(segment);
+
+		// append the segment to the end of the array, if another thread
+		// changes the array at the same time, just try again.
+		IndexSegment[] current;
+		IndexSegment[] updated;
+		do {
+			current = segments.get();
+			updated = new IndexSegment[current.length + 1];
+			System.arraycopy(current, 0, updated, 0, current.length);
+			updated[current.length] = segment;
+		} while (!segments.compareAndSet(current, updated));
+
+		requestMerge();
+		return true;
+	}
+
+	/**
+	 * @return one segment containing all the data of this index without the
+	 *         deleted documents, it is used for saving the index.
+	 */
+	IndexSegment getSnapshot() {
+		return toSegment(null, compressed);
+	}
+
+	/**
+	 * @return true if the positions of this index are compressed.
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Put all the data of this index into one new segment, the deleted
+	 * documents are left out.
+	 * 
+	 * @param docMap
+	 *            is used for changing the document IDs, it is null if the IDs
+	 *            do not change.
+	 * @param compressed
+	 *            is true if the positions of new segment should be compressed.
+	 * @return the new segment.
+	 */
+	private IndexSegment toSegment(int[] docMap, boolean compressed) {
+		// only the words added by indexData are copied under the read lock,
+		// the segments never change, so indexData is not blocked by the
+		// merge.
+		indexLock.acquireReadLock();
+		String[] terms = new String[termIds.size()];
+		PostingList[] lists = new PostingList[termIds.size()];
+		int i = 0;
+		for (Map.Entry<String, Integer> entry : termIds.entrySet()) {
+			terms[i] = entry.getKey();
+			lists[i] = postings.get(entry.getValue()).copy();
+			i++;
+		}
+		IndexSegment[] current = segments.get();
+		indexLock.releaseReadLock();
+
+		// the copied words are looked as the newest segment.
+		IndexSegment[] all = new IndexSegment[current.length + 1];
+		System.arraycopy(current, 0, all, 0, current.length);
+		all[current.length] = new IndexSegment(terms, lists);
+
+		// the merge copies all the PostingLists, so the new segment does not
+		// share anything with this index.
+		return IndexSegment.merge(all, docMap, documents.getRetired(),
+				compressed);
+	}
+
+	/**
+	 * Tell the background merger a new segment is added, it is started if it
+	 * is not running.
+	 */
+	private synchronized void requestMerge() {
+		if (closed) {
+			return;
+		}
+		if (merger == null) {
+			merger = new MergeWorker();
+			merger.start();
 		}
-		// after calling the method, release lock.
-		indexLock.releaseWriteLock();
+		merger.requestMerge();
 	}
 
 	/**
-	 * @return the indexTreeMap
+	 * Stop the background merger after the merge it is doing, and wait for
+	 * it. The index could still be used, but its segments are not merged any
+	 * more.
 	 */
-	@SuppressWarnings("unused")
-	private TreeMap<String, TreeMap<String, LinkedList<Integer>>> getData() {
-		return indexTreeMap;
+	public void shutdown() {
+		MergeWorker worker;
+		synchronized (this) {
+			closed = true;
+			worker = merger;
+		}
+		if (worker == null) {
+			return;
+		}
+		worker.shutdown();
+		try {
+			worker.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * This inner class MergeWorker is the background thread merging segments.
+	 * The segments are put into tiers by their size, when MERGE_FACTOR
+	 * segments next to each other are in about the same tier they are merged
+	 * into one segment of the next tier, so there are only a few segments for
+	 * searching.
+	 * 
+	 * @author ANG ZHANG
+	 * 
+	 */
+	private class MergeWorker extends Thread {
+
+		/**
+		 * It is true if a segment was added after last check.
+		 */
+		private boolean requested;
+
+		/**
+		 * It is true if the merger should stop.
+		 */
+		private boolean stopped;
+
+		/**
+		 * Constructor of MergeWorker, the thread does not stop the program
+		 * from exiting.
+		 */
+		public MergeWorker() {
+			setDaemon(true);
+			requested = false;
+			stopped = false;
+		}
+
+		/**
+		 * Tell the merger a new segment is added.
+		 */
+		public synchronized void requestMerge() {
+			requested = true;
+			notifyAll();
+		}
+
+		/**
+		 * Tell the merger to stop after the merge it is doing.
+		 */
+		public synchronized void shutdown() {
+			stopped = true;
+			notifyAll();
+		}
+
+		/**
+		 * @return true if the merger should stop.
+		 */
+		private synchronized boolean isStopped() {
+			return stopped;
+		}
+
+		@Override
+		public void run() {
+			while (!isStopped()) {
+				IndexSegment[] group = findMergeGroup(segments.get());
+
+				if (group == null) {
+					// nothing to merge, wait for next segment.
+					synchronized (this) {
+						while (!requested && !stopped) {
+							try {
+								wait();
+							} catch (InterruptedException ex) {
+								return;
+							}
+						}
+						requested = false;
+					}
+				} else {
+					// the deleted documents are dropped for good here.
+					long[] retired = documents.getRetired();
+					IndexSegment merged = IndexSegment.merge(group, null,
+							retired, compressed);
+					replaceSegments(group, merged);
+					// the lists of the short prefixes drop them too.
+					PrefixIndex prefixes = prefixIndex;
+					if (prefixes != null) {
+						prefixes.purge(retired, documents.size());
+					}
+				}
+			}
+		}
 
+		/**
+		 * Find MERGE_FACTOR segments next to each other to merge. Only
+		 * segments next to each other are merged, so the array stays in the
+		 * order the segments were added.
+		 * 
+		 * The array is cut into runs from the oldest segment. A run ends at
+		 * the last segment in the biggest tier of the rest of the array, so
+		 * a small segment between two big ones is merged with them instead
+		 * of being left alone forever. The first run with MERGE_FACTOR
+		 * segments gives its first MERGE_FACTOR segments.
+		 * 
+		 * @param current
+		 *            is the live segments.
+		 * @return the segments to merge, or null if no run is full.
+		 */
+		private IndexSegment[] findMergeGroup(IndexSegment[] current) {
+			int[] tiers = new int[current.length];
+			for (int i = 0; i < current.length; i++) {
+				for (long size = current[i].size(); size >= MERGE_FACTOR;
+						size /= MERGE_FACTOR) {
+					tiers[i]++;
+				}
+			}
+
+			int start = 0;
+			while (current.length - start >= MERGE_FACTOR) {
+				// the run ends at the last segment in the biggest tier.
+				int end = start;
+				for (int i = start + 1; i < current.length; i++) {
+					if (tiers[i] >= tiers[end]) {
+						end = i;
+					}
+				}
+				if (end - start + 1 >= MERGE_FACTOR) {
+					IndexSegment[] group = new IndexSegment[MERGE_FACTOR];
+					System.arraycopy(current, start, group, 0, MERGE_FACTOR);
+					return group;
+				}
+				start = end + 1;
+			}
+			return null;
+		}
+
+		/**
+		 * Replace the merged segments by the new one. New segments may be
+		 * added at the same time, so try again until the array is not
+		 * changed by others.
+		 * 
+		 * @param group
+		 *            is the merged segments.
+		 * @param merged
+		 *            is the new segment.
+		 */
+		private void replaceSegments(IndexSegment[] group, IndexSegment merged) {
+			IndexSegment[] current;
+			IndexSegment[] updated;
+			do {
+				current = segments.get();
+				updated = new IndexSegment[current.length - group.length + 1];
+				int j = 0;
+				for (IndexSegment segment : current) {
+					if (segment == group[0]) {
+						updated[j++] = merged;
+					} else if (!contains(group, segment)) {
+						updated[j++] = segment;
+					}
+				}
+			} while (!segments.compareAndSet(current, updated));
+		}
+
+		/**
+		 * @param group
+		 *            is an array of segments.
+		 * @param segment
+		 *            is the segment to find.
+		 * @return true if the segment is in the array.
+		 */
+		private boolean contains(IndexSegment[] group, IndexSegment segment) {
+			for (IndexSegment member : group) {
+				if (member == segment) {
+					return true;
+				}
+			}
+			return false;
+		}
 	}
 
 	/**
@@ -155,25 +698,41 @@ public class InvertedIndex {
 	 * @throws IOException
 	 */
 	public void printIndex() throws IOException {
-		// lock it in case of other read operation.
-		indexLock.acquireReadLock();
+		// put everything into one segment, so the words of all segments are
+		// printed in order.
+		IndexSegment all = getSnapshot();
 		// Create file
 		FileWriter fstream = new FileWriter("invertedindex.txt");
 		BufferedWriter out = new BufferedWriter(fstream);
 		try {
-			for (Map.Entry<String, TreeMap<String, LinkedList<Integer>>> entry : indexTreeMap
-					.entrySet()) {
+			// documents are printed in the order of their paths, so sort the
+			// document IDs by path once and give every document its rank.
+			final int[] rank = documents.getRanks();
+			PositionReader reader = new PositionReader();
+			String[] terms = all.getTerms();
 
-				out.write(entry.getKey() + "\n");
-				TreeMap<String, LinkedList<Integer>> map2 = entry.getValue();
+			for (int t = 0; t < terms.length; t++) {
 
-				for (Map.Entry<String, LinkedList<Integer>> entry2 : map2
-						.entrySet()) {
-					out.write("\"" + entry2.getKey() + "\"");
+				out.write(terms[t] + "\n");
+				final PostingList list = all.getPostingList(t);
 
-					LinkedList<Integer> mylist = entry2.getValue();
-					for (int j = 0; j < mylist.size(); j++) {
-						out.write(", " + mylist.get(j));
+				Integer[] order = new Integer[list.size()];
+				for (int i = 0; i < order.length; i++) {
+					order[i] = i;
+				}
+				Arrays.sort(order, new Comparator<Integer>() {
+					public int compare(Integer a, Integer b) {
+						return rank[list.getDocId(a)] - rank[list.getDocId(b)];
+					}
+				});
+
+				for (int i : order) {
+					out.write("\"" + documents.getDocument(list.getDocId(i))
+							+ "\"");
+
+					list.getPositions(i, reader);
+					while (reader.hasNext()) {
+						out.write(", " + reader.next());
 					}
 					out.write("\n");
 				}
@@ -191,8 +750,6 @@ public class InvertedIndex {
 				// do nothing
 			}
 		}
-		// after printing it, release the lock.
-		indexLock.releaseReadLock();
 	}
 
 	/**
@@ -201,67 +758,687 @@ public class InvertedIndex {
 	 * 
 	 * @param keyWords
 	 *            passed from the readQueryFile method of QueryFileHandler
-	 *            class.
+	 *            class. Every word is a prefix, except a word ending with
+	 *            EXACT_MARK which only matches itself.
 	 */
 	public ArrayList<SearchResult> searchResult(String[] keyWords) {
-		// using read lock to protect the data to avoid some threads will write
-		// the index.
+		return searchResult(keyWords, -1, newBudget());
+	}
+
+	/**
+	 * This method is used to search keywords when only the best k results are
+	 * needed, like the first page of the web search. The results are kept in
+	 * a min-heap of size k with the worst result on top, so only O(log k) work
+	 * is done for every document and the other results are dropped at once.
+	 * 
+	 * @param keyWords
+	 *            is the words to search.
+	 * @param k
+	 *            is the number of results needed.
+	 * @return at most k results in sorted order.
+	 */
+	public ArrayList<SearchResult> searchResult(String[] keyWords, int k) {
+		return searchResult(keyWords, k, newBudget());
+	}
+
+	/**
+	 * Search the keywords within a budget. If a limit of the budget is hit,
+	 * the results found so far are returned and the budget tells why the
+	 * search stopped.
+	 * 
+	 * @param keyWords
+	 *            is the words to search.
+	 * @param k
+	 *            is the number of results needed, or -1 for all of them.
+	 * @param budget
+	 *            is the budget of this search.
+	 * @return the sorted search results, partial if the budget is truncated.
+	 */
+	public ArrayList<SearchResult> searchResult(String[] keyWords, int k,
+			SearchBudget budget) {
+		// get the results of the planned search.
+		Collection<SearchResult> found = collect(plan(keyWords, k), budget);
+		if (k >= 0) {
+			return topResults(found, k);
+		}
+
+		// call sort method to sort the results
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>(found);
+		Collections.sort(results);
+		// return the results to QueryFileHandler.
+		return results;
+	}
+
+	/**
+	 * Set the limits of every search, a prefix expanding to too many words
+	 * then stops early with partial results instead of holding the index.
+	 * 
+	 * @param maxTerms
+	 *            is the most words expanded by one search, 0 for no limit.
+	 * @param maxPostings
+	 *            is the most postings read by one search, 0 for no limit.
+	 * @param timeout
+	 *            is the most milliseconds of one search, 0 for no limit.
+	 */
+	public void setSearchLimits(int maxTerms, long maxPostings, long timeout) {
+		this.maxTerms = maxTerms;
+		this.maxPostings = maxPostings;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return a new budget with the limits of this index, its time starts
+	 *         now.
+	 */
+	public SearchBudget newBudget() {
+		return new SearchBudget(maxTerms, maxPostings, timeout);
+	}
+
+	/**
+	 * Plan a search by counting the words and postings of every search word,
+	 * nothing is scored yet.
+	 * 
+	 * @param keyWords
+	 *            is the words to search.
+	 * @param k
+	 *            is the number of results needed, or -1 for all of them.
+	 * @return the plan of the search.
+	 */
+	public QueryPlan plan(String[] keyWords, int k) {
+		PrefixIndex prefixes = prefixIndex;
+		long[][] counts = new long[keyWords.length][2];
+		boolean[] precomputed = new boolean[keyWords.length];
+		for (int i = 0; i < keyWords.length; i++) {
+			if (isPrecomputed(prefixes, keyWords[i])) {
+				// the prefix is not expanded at all.
+				precomputed[i] = true;
+				counts[i][0] = 1;
+				counts[i][1] = prefixes.size(keyWords[i]);
+			} else {
+				countPostings(keyWords[i], counts[i]);
+			}
+		}
+		return new QueryPlan(keyWords, counts, precomputed, getCursorCost(), k);
+	}
+
+	/**
+	 * Search the words in the way chosen by the plan, and write the plan
+	 * with its actual cost to the query log.
+	 * 
+	 * @param plan
+	 *            is the plan of the search.
+	 * @param budget
+	 *            is the budget of the search.
+	 * @return the search results in no order, only the best k of them if the
+	 *         plan is pruned.
+	 */
+	Collection<SearchResult> collect(QueryPlan plan, SearchBudget budget) {
+		long start = System.nanoTime();
+		Collection<SearchResult> results;
+		if (plan.isPruned()) {
+			results = collectPruned(plan.getWords(), plan.getK(), budget);
+		} else if (plan.isDocumentAtATime()) {
+			results = collectByCursor(plan.getWords(), budget);
+		} else {
+			results = collectResults(plan.getWords(), budget).values();
+		}
+		plan.finish(results.size(), System.nanoTime() - start, budget);
+		return results;
+	}
+
+	/**
+	 * Search the words document-at-a-time, all the PostingLists are walked
+	 * together by a UnionCursor, so every document is finished at once and
+	 * no HashMap of results is needed.
+	 * 
+	 * @param keyWords
+	 *            is the words to search.
+	 * @param budget
+	 *            is the budget of the search, only the lists fitting into it
+	 *            are walked.
+	 * @return the search results in order of document ID.
+	 */
+	ArrayList<SearchResult> collectByCursor(String[] keyWords,
+			SearchBudget budget) {
+		ArrayList<TermCursor> cursors = openCursors(keyWords, budget);
+
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+		if (cursors.isEmpty()) {
+			return results;
+		}
+		DocCursor cursor = cursors.size() == 1 ? cursors.get(0)
+				: new UnionCursor(cursors);
+
+		// the postings are already in the budget, only the time is checked.
+		for (int doc = cursor.nextDoc(); doc != DocCursor.NO_MORE_DOCS
+				&& budget.tick(1); doc = cursor.nextDoc()) {
+			results.add(new SearchResult(documents, doc, cursor.frequency(),
+					cursor.firstPosition()));
+		}
+		return results;
+	}
+
+	/**
+	 * Search the best k results by a WandCursor. The worst result kept in the
+	 * heap is the threshold of the cursor, so the documents which could not
+	 * be better than it are skipped without being scored.
+	 * 
+	 * @param keyWords
+	 *            is the words to search.
+	 * @param k
+	 *            is the number of results needed.
+	 * @param budget
+	 *            is the budget of the search, only the lists fitting into it
+	 *            are walked.
+	 * @return the best k results in no order.
+	 */
+	ArrayList<SearchResult> collectPruned(String[] keyWords, int k,
+			SearchBudget budget) {
+		ArrayList<TermCursor> cursors = openCursors(keyWords, budget);
+		if (cursors.isEmpty() || k <= 0) {
+			return new ArrayList<SearchResult>();
+		}
+		WandCursor cursor = new WandCursor(cursors);
+
+		// the worst result kept so far is on the top of the heap.
+		PriorityQueue<SearchResult> heap = new PriorityQueue<SearchResult>(k,
+				Collections.reverseOrder());
+		for (int doc = cursor.nextDoc(); doc != DocCursor.NO_MORE_DOCS
+				&& budget.tick(1); doc = cursor.nextDoc()) {
+			// a document with a smaller frequency could never be better.
+			if (heap.size() == k
+					&& cursor.frequency() < heap.peek().getFrequency()) {
+				continue;
+			}
+			SearchResult result = new SearchResult(documents, doc,
+					cursor.frequency(), cursor.firstPosition());
+			if (heap.size() < k) {
+				heap.add(result);
+			} else if (result.compareTo(heap.peek()) < 0) {
+				heap.poll();
+				heap.add(result);
+			}
+			if (heap.size() == k) {
+				cursor.setThreshold(heap.peek().getFrequency());
+			}
+		}
+		return new ArrayList<SearchResult>(heap);
+	}
+
+	/**
+	 * Open a cursor on every PostingList of the words, as long as the lists
+	 * fit into the budget.
+	 * 
+	 * @param keyWords
+	 *            is the words to search.
+	 * @param budget
+	 *            is the budget of the search.
+	 * @return the cursors of the lists.
+	 */
+	private ArrayList<TermCursor> openCursors(String[] keyWords,
+			SearchBudget budget) {
+		// the lists are found again if a document is replaced or deleted
+		// meanwhile, so the lists and the deleted documents belong together.
+		ArrayList<PostingList> lists = new ArrayList<PostingList>();
+		long[] deleted;
+		do {
+			deleted = documents.getDeleted();
+			lists.clear();
+			for (String word : keyWords) {
+				getPostingLists(word, lists);
+			}
+		} while (deleted != documents.getDeleted());
+		ArrayList<TermCursor> cursors = new ArrayList<TermCursor>();
+		for (PostingList list : lists) {
+			if (!budget.spend(list.size())) {
+				break;
+			}
+			cursors.add(new TermCursor(list, deleted));
+		}
+		return cursors;
+	}
+
+	/**
+	 * Count the words starting with the prefix and the documents in their
+	 * PostingLists, which is used for planning a search.
+	 * 
+	 * @param word
+	 *            is the prefix, or an exact word ending with EXACT_MARK.
+	 * @param counts
+	 *            is the counts to add to, counts[0] for the words and
+	 *            counts[1] for the postings.
+	 */
+	void countPostings(String word, long[] counts) {
+		if (isExact(word)) {
+			word = removeExactMark(word);
+			for (IndexSegment segment : segments.get()) {
+				int t = segment.indexOf(word);
+				if (t >= 0) {
+					counts[0]++;
+					counts[1] += segment.getPostingList(t).size();
+				}
+			}
+			indexLock.acquireReadLock();
+			Integer termId = exactIds.get(word);
+			if (termId != null) {
+				counts[0]++;
+				counts[1] += postings.get(termId).size();
+			}
+			indexLock.releaseReadLock();
+			return;
+		}
+
+		for (IndexSegment segment : segments.get()) {
+			TermTrie dictionary = segment.getDictionary();
+			int node = dictionary.find(word);
+			if (node < 0) {
+				continue;
+			}
+			for (int t = dictionary.getFirstTerm(node); t < dictionary
+					.getEndTerm(node); t++) {
+				counts[0]++;
+				counts[1] += segment.getPostingList(t).size();
+			}
+		}
+
 		indexLock.acquireReadLock();
-		HashMap<String, SearchResult> infoMap = new HashMap<String, SearchResult>();
+		for (Map.Entry<String, Integer> entry : termIds.tailMap(word)
+				.entrySet()) {
+			if (!entry.getKey().startsWith(word)) {
+				break;
+			}
+			counts[0]++;
+			counts[1] += postings.get(entry.getValue()).size();
+		}
+		indexLock.releaseReadLock();
+	}
 
-		for (String word : keyWords) {
+	/**
+	 * @return the cost of reading one posting through a cursor, compared
+	 *         with adding it into a HashMap in the plan.
+	 */
+	double getCursorCost() {
+		return 1;
+	}
 
-			for (String cur = indexTreeMap.ceilingKey(word); cur != null; cur = indexTreeMap
-					.higherKey(cur)) {
+	/**
+	 * This method is used to search a boolean query parsed by QueryParser.
+	 * The documents are found by walking the cursor of the query, the lists
+	 * of AND are intersected by skipping instead of collecting every document
+	 * of every word.
+	 * 
+	 * @param query
+	 *            is the parsed query.
+	 * @param k
+	 *            is the number of results needed, or -1 for all of them.
+	 * @return the sorted search results.
+	 */
+	public ArrayList<SearchResult> searchQuery(QueryNode query, int k) {
+		return searchQuery(query, k, newBudget());
+	}
 
-				if (!cur.startsWith(word)) {
+	/**
+	 * Search a boolean query within a budget. If a limit of the budget is
+	 * hit, the documents found so far are returned and the budget tells why
+	 * the search stopped.
+	 * 
+	 * @param query
+	 *            is the parsed query.
+	 * @param k
+	 *            is the number of results needed, or -1 for all of them.
+	 * @param budget
+	 *            is the budget of this search.
+	 * @return the sorted search results, partial if the budget is truncated.
+	 */
+	public ArrayList<SearchResult> searchQuery(QueryNode query, int k,
+			SearchBudget budget) {
+		long start = System.nanoTime();
+		// the lists are opened again if a document is replaced or deleted
+		// meanwhile, so the lists and the deleted documents belong together.
+		// The lists of the first try stay in the budget, their words were
+		// expanded anyway.
+		long[] deleted;
+		DocCursor cursor;
+		do {
+			deleted = documents.getDeleted();
+			cursor = query.open(this, deleted, budget);
+		} while (deleted != documents.getDeleted());
+		ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+		// the postings are already in the budget, only the time is checked.
+		for (int doc = cursor.nextDoc(); doc != DocCursor.NO_MORE_DOCS
+				&& budget.tick(1); doc = cursor.nextDoc()) {
+			results.add(new SearchResult(documents, doc, cursor.frequency(),
+					cursor.firstPosition()));
+		}
+		QueryPlan.explain(query, results.size(), System.nanoTime() - start,
+				budget);
 
-					break;
+		if (k >= 0) {
+			return topResults(results, k);
+		}
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Find the PostingLists of all the words starting with the prefix. The
+	 * lists of the segments are given directly, the lists still being built
+	 * are copied under the read lock, so all the lists could be read without
+	 * any lock.
+	 * 
+	 * @param word
+	 *            is the prefix, or an exact word ending with EXACT_MARK.
+	 * @param lists
+	 *            is the list to add the PostingLists into.
+	 */
+	void getPostingLists(String word, ArrayList<PostingList> lists) {
+		if (isExact(word)) {
+			word = removeExactMark(word);
+			for (IndexSegment segment : segments.get()) {
+				int t = segment.indexOf(word);
+				if (t >= 0) {
+					lists.add(segment.getPostingList(t));
 				}
+			}
+			indexLock.acquireReadLock();
+			Integer termId = exactIds.get(word);
+			if (termId != null) {
+				lists.add(postings.get(termId).copy());
+			}
+			indexLock.releaseReadLock();
+			return;
+		}
+
+		for (IndexSegment segment : segments.get()) {
+			TermTrie dictionary = segment.getDictionary();
+			int node = dictionary.find(word);
+			if (node < 0) {
+				continue;
+			}
+			for (int t = dictionary.getFirstTerm(node); t < dictionary
+					.getEndTerm(node); t++) {
+				lists.add(segment.getPostingList(t));
+			}
+		}
+
+		indexLock.acquireReadLock();
+		for (Map.Entry<String, Integer> entry : termIds.tailMap(word)
+				.entrySet()) {
+			if (!entry.getKey().startsWith(word)) {
+				break;
+			}
+			lists.add(postings.get(entry.getValue()).copy());
+		}
+		indexLock.releaseReadLock();
+	}
+
+	/**
+	 * Choose the best k results with a bounded heap.
+	 * 
+	 * @param candidates
+	 *            is all the results.
+	 * @param k
+	 *            is the number of results needed.
+	 * @return at most k results in sorted order.
+	 */
+	static ArrayList<SearchResult> topResults(
+			Collection<SearchResult> candidates, int k) {
+		if (k <= 0) {
+			return new ArrayList<SearchResult>();
+		}
+
+		// the worst result kept so far is on the top of the heap.
+		PriorityQueue<SearchResult> heap = new PriorityQueue<SearchResult>(
+				Math.min(k, Math.max(candidates.size(), 1)),
+				Collections.reverseOrder());
+		for (SearchResult result : candidates) {
+			if (heap.size() < k) {
+				heap.add(result);
+			} else if (result.compareTo(heap.peek()) < 0) {
+				heap.poll();
+				heap.add(result);
+			}
+		}
 
-				for (Map.Entry<String, LinkedList<Integer>> entry : indexTreeMap
-						.get(cur).entrySet()) {
-					// if inner map of resultMap does not contain the file path.
-					if (!infoMap.containsKey(entry.getKey())) {
+		// the heap gives the worst result first, so fill the list backward.
+		SearchResult[] sorted = new SearchResult[heap.size()];
+		for (int i = sorted.length - 1; i >= 0; i--) {
+			sorted[i] = heap.poll();
+		}
+		return new ArrayList<SearchResult>(Arrays.asList(sorted));
+	}
 
-						// get the size and first element from the LinkedList in
-						// the indexTreeMap then put the key which is current
-						// path and put the path and initialize a new
-						// SearchResult into infoMap.
+	/**
+	 * Find every document containing a word starting with one of the
+	 * keywords, the results are not sorted.
+	 * 
+	 * @param keyWords
+	 *            is the words to search.
+	 * @param budget
+	 *            is the budget of the search, the search stops when it is
+	 *            used up.
+	 * @return the search result of every document by document ID.
+	 */
+	HashMap<Integer, SearchResult> collectResults(String[] keyWords,
+			SearchBudget budget) {
+		HashMap<Integer, SearchResult> infoMap = new HashMap<Integer, SearchResult>();
+		// the deleted documents are read once with the segments and the
+		// lists of the short prefixes, and again if a document is replaced
+		// or deleted meanwhile, so every word of the search sees the same ID
+		// of a replaced document.
+		PrefixIndex prefixes = prefixIndex;
+		PrefixIndex.Entries[] precomputed = new PrefixIndex.Entries[
+				keyWords.length];
+		IndexSegment[] live;
+		long[] deleted;
+		do {
+			deleted = documents.getDeleted();
+			live = segments.get();
+			for (int i = 0; i < keyWords.length; i++) {
+				if (isPrecomputed(prefixes, keyWords[i])) {
+					precomputed[i] = prefixes.getEntries(keyWords[i]);
+				}
+			}
+		} while (deleted != documents.getDeleted());
 
-						infoMap.put(entry.getKey(),
-								new SearchResult(entry.getKey(), entry
-										.getValue().size(), entry.getValue()
-										.getFirst()));
+		// a short prefix is one list of the PrefixIndex, it is not searched
+		// in the segments and the tree again.
+		ArrayList<String> expanded = new ArrayList<String>();
+		for (int i = 0; i < keyWords.length; i++) {
+			if (isPrecomputed(prefixes, keyWords[i])) {
+				if (!collectPrefix(precomputed[i], infoMap, deleted, budget)) {
+					return infoMap;
+				}
+			} else {
+				expanded.add(keyWords[i]);
+			}
+		}
 
-						// if inner map of resultMap already contains the file
-						// path.
-					} else if (infoMap.containsKey(entry.getKey())) {
+		// the segments are never changed, so they are searched without lock.
+		for (IndexSegment segment : live) {
 
-						// pass the current frequency and first position to the
-						// infoMap and update SearchResult.
+			TermTrie dictionary = segment.getDictionary();
 
-						infoMap.get(entry.getKey()).updateValues(
-								entry.getValue().size(),
-								entry.getValue().getFirst());
+			for (String word : expanded) {
 
+				// an exact word is found in the hash dictionary, no prefix
+				// range is walked.
+				if (isExact(word)) {
+					int t = segment.indexOf(removeExactMark(word));
+					if (t >= 0
+							&& !addResults(segment.getPostingList(t), infoMap,
+									deleted, budget)) {
+						return infoMap;
 					}
+					continue;
 				}
 
-			}
+				// all the words with the prefix are a range in the trie.
+				int node = dictionary.find(word);
+				if (node < 0) {
+					continue;
+				}
+				for (int t = dictionary.getFirstTerm(node); t < dictionary
+						.getEndTerm(node); t++) {
 
+					if (!addResults(segment.getPostingList(t), infoMap,
+							deleted, budget)) {
+						return infoMap;
+					}
+				}
+			}
 		}
-		// get the value of infoMap and put them into a list.
-		ArrayList<SearchResult> results = new ArrayList<SearchResult>(
-				infoMap.values());
 
-		// call sort method to sort the results
-		Collections.sort(results);
+		// using read lock to protect the data to avoid some threads will write
+		// the index.
+		indexLock.acquireReadLock();
+
+		// the lock is released as soon as the budget is used up, so a long
+		// prefix walk never keeps indexing waiting.
+		search: for (String word : expanded) {
+
+			if (isExact(word)) {
+				Integer termId = exactIds.get(removeExactMark(word));
+				if (termId != null
+						&& !addResults(postings.get(termId), infoMap, deleted,
+								budget)) {
+					break;
+				}
+				continue;
+			}
+
+			// walk the words from the prefix in order once, instead of
+			// searching the tree again for every word.
+			for (Map.Entry<String, Integer> entry : termIds.tailMap(word)
+					.entrySet()) {
+
+				if (!entry.getKey().startsWith(word)) {
+
+					break;
+				}
+
+				if (!addResults(postings.get(entry.getValue()), infoMap,
+						deleted, budget)) {
+					break search;
+				}
+			}
+
+		}
 		// release read lock after the function process.
 		indexLock.releaseReadLock();
-		// return the results to QueryFileHandler.
-		return results;
 
+		return infoMap;
+	}
+
+	/**
+	 * Add the precomputed results of a short prefix, the list counts as one
+	 * word in the budget.
+	 * 
+	 * @param entries
+	 *            is the entries of the prefix read with the deleted IDs, or
+	 *            null if no word starts with it.
+	 * @param infoMap
+	 *            is the search results of every document.
+	 * @param deleted
+	 *            is the deleted IDs read at the start of the search.
+	 * @param budget
+	 *            is the budget of the search.
+	 * @return true if the list was added, false if the budget is used up.
+	 */
+	private boolean collectPrefix(PrefixIndex.Entries entries,
+			HashMap<Integer, SearchResult> infoMap, long[] deleted,
+			SearchBudget budget) {
+		if (entries == null) {
+			return budget.spend(0);
+		}
+		if (!budget.spend(entries.size())) {
+			return false;
+		}
+		entries.collect(infoMap, documents, deleted);
+		return true;
+	}
+
+	/**
+	 * @param prefixes
+	 *            is the PrefixIndex, or null.
+	 * @param word
+	 *            is a search word.
+	 * @return true if the results of the word are kept in the PrefixIndex.
+	 */
+	private static boolean isPrecomputed(PrefixIndex prefixes, String word) {
+		return prefixes != null && !isExact(word) && prefixes.covers(word);
+	}
+
+	/**
+	 * @param word
+	 *            is a search word.
+	 * @return true if the word should be matched exactly, it ends with
+	 *         EXACT_MARK.
+	 */
+	static boolean isExact(String word) {
+		return word.endsWith(EXACT_MARK);
+	}
+
+	/**
+	 * @param word
+	 *            is a search word ending with EXACT_MARK.
+	 * @return the word without the mark.
+	 */
+	static String removeExactMark(String word) {
+		return word.substring(0, word.length() - EXACT_MARK.length());
+	}
+
+	/**
+	 * Add the frequency and first position of every document in the
+	 * PostingList to the search results.
+	 * 
+	 * @param list
+	 *            is the PostingList of one word.
+	 * @param infoMap
+	 *            is the search results of every document.
+	 * @param deleted
+	 *            is the deleted IDs read at the start of the search.
+	 * @param budget
+	 *            is the budget of the search, the list is only added if it
+	 *            fits into the budget.
+	 * @return true if the list was added, false if the budget is used up.
+	 */
+	private boolean addResults(PostingList list,
+			HashMap<Integer, SearchResult> infoMap, long[] deleted,
+			SearchBudget budget) {
+
+		if (!budget.spend(list.size())) {
+			return false;
+		}
+
+		for (int i = 0; i < list.size(); i++) {
+			int docId = list.getDocId(i);
+			if (DocumentTable.isDeleted(deleted, docId)) {
+				continue;
+			}
+			SearchResult result = infoMap.get(docId);
+			// if infoMap does not contain the document.
+			if (result == null) {
+
+				// get the frequency and first position from the PostingList
+				// then put the document ID and initialize a new SearchResult
+				// into infoMap.
+
+				infoMap.put(docId, new SearchResult(documents, docId,
+						list.getFrequency(i), list.getFirstPosition(i)));
+
+				// if infoMap already contains the document.
+			} else {
+
+				// pass the current frequency and first position to the
+				// infoMap and update SearchResult.
+
+				result.updateValues(list.getFrequency(i),
+						list.getFirstPosition(i));
+
+			}
+		}
+		return true;
 	}
 
 }
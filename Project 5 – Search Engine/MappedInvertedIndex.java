@@ -0,0 +1,572 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class MappedInvertedIndex is a read-only InvertedIndex which searches
+ * an index file saved by IndexSnapshot directly. The file is mapped into
+ * memory by FileChannel.map, so the words and postings are never loaded into
+ * the heap, opening the index is almost instant, and several programs using
+ * the same file share the page cache of the operating system. Only the paths
+ * of the documents are kept in the heap.
+ *
+ * The checksum of the file is not checked when it is opened, because that
+ * would read the whole file. Use IndexSnapshot.load to check a file.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class MappedInvertedIndex extends InvertedIndex {
+
+	/**
+	 * One MappedByteBuffer could not be bigger than 2GB, so the file is mapped
+	 * in chunks of 1 << CHUNK_BITS bytes.
+	 */
+	private static final int CHUNK_BITS = 30;
+
+	/**
+	 * The mask for getting the offset in one chunk.
+	 */
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	/**
+	 * The mapped chunks of the file.
+	 */
+	private MappedByteBuffer[] chunks;
+
+	/**
+	 * The number of words in the file.
+	 */
+	private int termCount;
+
+	/**
+	 * The offset of the table of word offsets.
+	 */
+	private long tableOffset;
+
+	/**
+	 * The offsets of the labels, ends and ranks of the saved TermTrie.
+	 */
+	private long labelOffset;
+	private long endOffset;
+	private long rankOffset;
+
+	/**
+	 * The hash dictionary for exact search, an open-addressing table of pairs
+	 * of the hash code and the index plus 1 of a word, 0 means an empty slot.
+	 * Only ints are kept in the heap, the words stay in the file. It is built
+	 * when the first exact word is searched.
+	 */
+	private volatile int[] exactTable;
+
+	/**
+	 * The constructor of MappedInvertedIndex.
+	 *
+	 * @param path
+	 *            is the path of index file saved by IndexSnapshot.
+	 * @throws IOException
+	 *             if the file could not be mapped, or it is not a valid index
+	 *             file.
+	 */
+	public MappedInvertedIndex(String path) throws IOException {
+		super(new DocumentTable(), false);
+
+		RandomAccessFile file = new RandomAccessFile(new File(path), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long length = channel.size();
+			if (length < IndexSnapshot.HEADER_SIZE + IndexSnapshot.FOOTER_SIZE) {
+				throw new IOException("Not an index file: " + path);
+			}
+
+			chunks = new MappedByteBuffer[(int) ((length - 1) >>> CHUNK_BITS) + 1];
+			for (int i = 0; i < chunks.length; i++) {
+				long start = (long) i << CHUNK_BITS;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(length - start, 1L << CHUNK_BITS));
+			}
+			// the mapping is still valid after the file is closed.
+		} finally {
+			file.close();
+		}
+
+		if (getInt(0) != IndexSnapshot.MAGIC) {
+			throw new IOException("Not an index file: " + path);
+		}
+		int version = getInt(4);
+		if (version != IndexSnapshot.VERSION) {
+			throw new IOException("Unsupported index file version " + version
+					+ ": " + path);
+		}
+		int docCount = getInt(8);
+		termCount = getInt(12);
+
+		// the footer is read first, every string must end before the table.
+		long fileLength = getLength();
+		tableOffset = getLong(fileLength - IndexSnapshot.FOOTER_SIZE);
+		long trieOffset = getLong(fileLength - IndexSnapshot.FOOTER_SIZE + 8);
+		if (tableOffset < IndexSnapshot.HEADER_SIZE || termCount < 0
+				|| tableOffset + 8L * termCount != trieOffset
+				|| trieOffset + 4 > fileLength - IndexSnapshot.FOOTER_SIZE) {
+			throw new IOException("Index file is damaged: " + path);
+		}
+
+		long offset = IndexSnapshot.HEADER_SIZE;
+		for (int i = 0; i < docCount; i++) {
+			if (!isString(offset)) {
+				throw new IOException("Index file is damaged: " + path);
+			}
+			getDocumentTable().getId(getString(offset));
+			offset += 4 + getInt(offset);
+		}
+		int nodeCount = getInt(trieOffset);
+		labelOffset = trieOffset + 4;
+		endOffset = labelOffset + 2L * nodeCount;
+		rankOffset = endOffset + 4L * nodeCount;
+		if (nodeCount <= 0
+				|| rankOffset + 4L * (nodeCount + 1) != fileLength
+						- IndexSnapshot.FOOTER_SIZE) {
+			throw new IOException("Index file is damaged: " + path);
+		}
+	}
+
+	/**
+	 * @return the length of the mapped file.
+	 */
+	private long getLength() {
+		MappedByteBuffer last = chunks[chunks.length - 1];
+		return ((long) (chunks.length - 1) << CHUNK_BITS) + last.limit();
+	}
+
+	/**
+	 * @param offset
+	 *            is the offset in the file.
+	 * @return the byte at the offset.
+	 */
+	private byte getByte(long offset) {
+		return chunks[(int) (offset >>> CHUNK_BITS)].get((int) (offset & CHUNK_MASK));
+	}
+
+	/**
+	 * @param offset
+	 *            is the offset in the file.
+	 * @return the unsigned short at the offset.
+	 */
+	private int getUnsignedShort(long offset) {
+		return ((getByte(offset) & 0xFF) << 8) | (getByte(offset + 1) & 0xFF);
+	}
+
+	/**
+	 * @param offset
+	 *            is the offset in the file.
+	 * @return the int at the offset.
+	 */
+	private int getInt(long offset) {
+		MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_BITS)];
+		int local = (int) (offset & CHUNK_MASK);
+		if (local + 4 <= chunk.limit()) {
+			return chunk.getInt(local);
+		}
+		// the int is split by the end of the chunk.
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			value = (value << 8) | (getByte(offset + i) & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * @param offset
+	 *            is the offset in the file.
+	 * @return the long at the offset.
+	 */
+	private long getLong(long offset) {
+		return ((long) getInt(offset) << 32) | (getInt(offset + 4) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param offset
+	 *            is the offset in the file.
+	 * @return true if the string at the offset ends before the table of word
+	 *         offsets, where all strings of the file are.
+	 */
+	private boolean isString(long offset) {
+		if (offset + 4 > tableOffset) {
+			return false;
+		}
+		int length = getInt(offset);
+		return length >= 0 && offset + 4 + length <= tableOffset;
+	}
+
+	/**
+	 * Read a string written by IndexSnapshot.writeString.
+	 *
+	 * @param offset
+	 *            is the offset in the file.
+	 * @return the string at the offset.
+	 */
+	private String getString(long offset) {
+		if (!isString(offset)) {
+			throw new IllegalStateException("Index file is damaged.");
+		}
+		byte[] bytes = new byte[getInt(offset)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = getByte(offset + 4 + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param t
+	 *            is the index of word in sorted order.
+	 * @return the offset of the entry of the word.
+	 */
+	private long getTermOffset(int t) {
+		return getLong(tableOffset + 8L * t);
+	}
+
+	/**
+	 * @param t
+	 *            is the index of word in sorted order.
+	 * @return the word.
+	 */
+	private String getTerm(int t) {
+		return getString(getTermOffset(t));
+	}
+
+	/**
+	 * @param t
+	 *            is the index of word in sorted order.
+	 * @return the offset of the postings of the word.
+	 */
+	private long getPostingOffset(int t) {
+		long offset = getTermOffset(t);
+		return getLong(offset + 4 + getInt(offset));
+	}
+
+	/**
+	 * @param node
+	 *            is a node of the saved trie.
+	 * @return the node after the subtree of the node.
+	 */
+	private int getEnd(int node) {
+		return getInt(endOffset + 4L * node);
+	}
+
+	/**
+	 * @param node
+	 *            is a node of the saved trie, or the number of nodes.
+	 * @return the number of words before the node.
+	 */
+	private int getRank(int node) {
+		return getInt(rankOffset + 4L * node);
+	}
+
+	/**
+	 * Walk down the saved trie along the prefix, like TermTrie.find.
+	 *
+	 * @param prefix
+	 *            is the prefix.
+	 * @return the node, or -1 if no word starts with the prefix.
+	 */
+	private int find(String prefix) {
+		int node = 0;
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = prefix.charAt(i);
+			int end = getEnd(node);
+			int child = node + 1;
+			while (child < end
+					&& (char) getUnsignedShort(labelOffset + 2L * child) != c) {
+				child = getEnd(child);
+			}
+			if (child >= end) {
+				return -1;
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/**
+	 * Search the keywords in the mapped file, every word is used as a prefix
+	 * or an exact word like the collectResults method of InvertedIndex.
+	 *
+	 * @param keyWords
+	 *            is the words to search.
+	 * @param budget
+	 *            is the budget of the search, the search stops when it is
+	 *            used up.
+	 * @return the search result of every document by document ID.
+	 */
+	@Override
+	HashMap<Integer, SearchResult> collectResults(String[] keyWords,
+			SearchBudget budget) {
+		HashMap<Integer, SearchResult> infoMap = new HashMap<Integer, SearchResult>();
+
+		for (String word : keyWords) {
+
+			if (isExact(word)) {
+				int t = indexOf(removeExactMark(word));
+				if (t >= 0 && !addMappedResults(t, infoMap, budget)) {
+					break;
+				}
+				continue;
+			}
+
+			// all the words with the prefix are a range in the saved trie, so
+			// no word needs to be read from the file.
+			int node = find(word);
+			if (node < 0) {
+				continue;
+			}
+
+			for (int t = getRank(node); t < getRank(getEnd(node)); t++) {
+				if (!addMappedResults(t, infoMap, budget)) {
+					return infoMap;
+				}
+			}
+		}
+		return infoMap;
+	}
+
+	/**
+	 * Add the frequency and first position of every document of one word,
+	 * they are read from the file without reading the positions.
+	 *
+	 * @param t
+	 *            is the index of word in sorted order.
+	 * @param infoMap
+	 *            is the search results of every document.
+	 * @param budget
+	 *            is the budget of the search.
+	 * @return true if the word was added, false if the budget is used up.
+	 */
+	private boolean addMappedResults(int t,
+			HashMap<Integer, SearchResult> infoMap, SearchBudget budget) {
+		long offset = getPostingOffset(t);
+		int size = getInt(offset);
+		offset += 4;
+		if (!budget.spend(size)) {
+			return false;
+		}
+
+		for (int i = 0; i < size; i++) {
+			int docId = getInt(offset);
+			int frequency = getInt(offset + 4);
+			int first = getInt(offset + 8);
+			int length = getInt(offset + 12);
+			offset += 16 + length;
+
+			SearchResult result = infoMap.get(docId);
+			if (result == null) {
+				infoMap.put(docId, new SearchResult(getDocumentTable(), docId,
+						frequency, first));
+			} else {
+				result.updateValues(frequency, first);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	void countPostings(String word, long[] counts) {
+		if (isExact(word)) {
+			int t = indexOf(removeExactMark(word));
+			if (t >= 0) {
+				counts[0]++;
+				counts[1] += getInt(getPostingOffset(t));
+			}
+			return;
+		}
+		int node = find(word);
+		if (node < 0) {
+			return;
+		}
+		for (int t = getRank(node); t < getRank(getEnd(node)); t++) {
+			counts[0]++;
+			counts[1] += getInt(getPostingOffset(t));
+		}
+	}
+
+	/**
+	 * The lists are copied from the file with all their positions before a
+	 * cursor could read them, while searching term-at-a-time only reads the
+	 * frequency and first position, so cursors are much more expensive here.
+	 *
+	 * @return the cost of reading one posting through a cursor.
+	 */
+	@Override
+	double getCursorCost() {
+		return 16;
+	}
+
+	/**
+	 * Find an exact word in the hash dictionary. Only a word with the same
+	 * hash code is read from the file and compared.
+	 *
+	 * @param word
+	 *            is the word to find.
+	 * @return the index of the word, or -1 if it is not in the file.
+	 */
+	private int indexOf(String word) {
+		int[] table = exactTable;
+		if (table == null) {
+			table = buildExactTable();
+		}
+		int mask = table.length / 2 - 1;
+		int hash = word.hashCode();
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (table[2 * slot + 1] != 0) {
+			int t = table[2 * slot + 1] - 1;
+			if (table[2 * slot] == hash && getTerm(t).equals(word)) {
+				return t;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Build the hash dictionary once by reading every word of the file.
+	 *
+	 * @return the table of the hash dictionary.
+	 */
+	private synchronized int[] buildExactTable() {
+		if (exactTable == null) {
+			// keep the table at most half full, the capacity is a power of
+			// two.
+			int capacity = Integer.highestOneBit(Math.max(termCount, 1)) * 4;
+			int[] table = new int[capacity * 2];
+			int mask = capacity - 1;
+			for (int t = 0; t < termCount; t++) {
+				int hash = getTerm(t).hashCode();
+				int slot = (hash ^ (hash >>> 16)) & mask;
+				while (table[2 * slot + 1] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[2 * slot] = hash;
+				table[2 * slot + 1] = t + 1;
+			}
+			exactTable = table;
+		}
+		return exactTable;
+	}
+
+	/**
+	 * Load all the words and postings into one segment in the heap, it is
+	 * only used for printing or saving the index.
+	 *
+	 * @return the segment containing all the data of the file.
+	 */
+	@Override
+	IndexSegment getSnapshot() {
+		String[] terms = new String[termCount];
+		PostingList[] postings = new PostingList[termCount];
+
+		for (int t = 0; t < termCount; t++) {
+			terms[t] = getTerm(t);
+			postings[t] = readPostingList(t);
+		}
+		return new IndexSegment(terms, postings);
+	}
+
+	/**
+	 * Copy the postings of one word from the file into the heap.
+	 *
+	 * @param t
+	 *            is the index of word in sorted order.
+	 * @return the PostingList of the word.
+	 */
+	private PostingList readPostingList(int t) {
+		PostingList list = new PostingList(true);
+
+		long offset = getPostingOffset(t);
+		int size = getInt(offset);
+		offset += 4;
+		for (int i = 0; i < size; i++) {
+			byte[] encoded = new byte[getInt(offset + 12)];
+			for (int j = 0; j < encoded.length; j++) {
+				encoded[j] = getByte(offset + 16 + j);
+			}
+			list.addEncoded(getInt(offset), encoded, getInt(offset + 4));
+			offset += 16 + encoded.length;
+		}
+		return list;
+	}
+
+	/**
+	 * The postings of the words with the prefix are copied from the file, a
+	 * boolean query needs the positions and skipping in the lists.
+	 *
+	 * @param word
+	 *            is the prefix.
+	 * @param lists
+	 *            is the list to add the PostingLists into.
+	 */
+	@Override
+	void getPostingLists(String word, ArrayList<PostingList> lists) {
+		if (isExact(word)) {
+			int t = indexOf(removeExactMark(word));
+			if (t >= 0) {
+				lists.add(readPostingList(t));
+			}
+			return;
+		}
+		int node = find(word);
+		if (node < 0) {
+			return;
+		}
+		for (int t = getRank(node); t < getRank(getEnd(node)); t++) {
+			lists.add(readPostingList(t));
+		}
+	}
+
+	@Override
+	public void indexData(String index, String word, int position) {
+		throw new UnsupportedOperationException("The mapped index is read-only.");
+	}
+
+	@Override
+	public void indexData(int docId, String word, int position) {
+		throw new UnsupportedOperationException("The mapped index is read-only.");
+	}
+
+	@Override
+	public void addAllIndex(InvertedIndex subIndex, String filePath) {
+		throw new UnsupportedOperationException("The mapped index is read-only.");
+	}
+
+	/**
+	 * The mapped file is searched without loading it, so no prefix lists are
+	 * kept.
+	 */
+	@Override
+	public void setPrefixLength(int length) {
+
+	}
+
+	@Override
+	public void addDocument(DocumentIndexBuilder builder) {
+		throw new UnsupportedOperationException("The mapped index is read-only.");
+	}
+
+	@Override
+	void addSegment(IndexSegment segment) {
+		throw new UnsupportedOperationException("The mapped index is read-only.");
+	}
+
+	@Override
+	public void replaceDocument(String document, DocumentIndexBuilder builder) {
+		throw new UnsupportedOperationException("The mapped index is read-only.");
+	}
+
+	@Override
+	public boolean deleteDocument(String document) {
+		throw new UnsupportedOperationException("The mapped index is read-only.");
+	}
+}
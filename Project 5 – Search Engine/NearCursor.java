@@ -0,0 +1,247 @@
+import java.util.ArrayList;
+
+/**
+ * This class NearCursor finds the documents where two words or phrases appear
+ * near each other in any order, with at most a given number of words between
+ * them. Like PhraseCursor, the documents having both parts are found first,
+ * and only their positions are merged.
+ *
+ * The two lists of positions are walked together like merging two sorted
+ * lists, the part with the smaller position always moves on. A position is a
+ * match if the first position of the other part starting after its end is
+ * close enough. Parts which overlap, like one word found by both parts, are
+ * never a pair, so "apple NEAR/0 apple" needs two words. The positions of
+ * current document are kept in arrays, because the partner of a position may
+ * be after positions of the other part which still need to be checked.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class NearCursor extends DocCursor {
+
+	/**
+	 * The cursors of the two parts.
+	 */
+	private DocCursor left;
+	private DocCursor right;
+
+	/**
+	 * The number of words of the two parts, a word is 1.
+	 */
+	private int leftWidth;
+	private int rightWidth;
+
+	/**
+	 * The most words allowed between the two parts.
+	 */
+	private int distance;
+
+	/**
+	 * The cursor of the documents having both parts.
+	 */
+	private ConjunctionCursor conjunction;
+
+	/**
+	 * The positions of the two parts in current document, and their numbers.
+	 */
+	private int[] leftPositions;
+	private int[] rightPositions;
+	private int leftCount;
+	private int rightCount;
+
+	/**
+	 * The next position of each part to check in the merged order.
+	 */
+	private int leftIndex;
+	private int rightIndex;
+
+	/**
+	 * The first position of each part which could be the partner of the
+	 * next position of the other part, they only move forward.
+	 */
+	private int leftPartner;
+	private int rightPartner;
+
+	/**
+	 * The current document.
+	 */
+	private int doc;
+
+	/**
+	 * The smaller position of the first close pair in current document.
+	 */
+	private int first;
+
+	/**
+	 * The number of close pairs in current document, or -1 if not counted.
+	 */
+	private int frequency;
+
+	/**
+	 * The constructor of NearCursor.
+	 *
+	 * @param left
+	 *            is the cursor of the first part.
+	 * @param leftWidth
+	 *            is the number of words of the first part.
+	 * @param right
+	 *            is the cursor of the second part.
+	 * @param rightWidth
+	 *            is the number of words of the second part.
+	 * @param distance
+	 *            is the most words allowed between the two parts.
+	 */
+	public NearCursor(DocCursor left, int leftWidth, DocCursor right,
+			int rightWidth, int distance) {
+		this.left = left;
+		this.right = right;
+		this.leftWidth = leftWidth;
+		this.rightWidth = rightWidth;
+		this.distance = distance;
+
+		ArrayList<DocCursor> both = new ArrayList<DocCursor>();
+		both.add(left);
+		both.add(right);
+		conjunction = new ConjunctionCursor(both);
+		leftPositions = new int[16];
+		rightPositions = new int[16];
+		doc = -1;
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int nextDoc() {
+		return findMatch(conjunction.nextDoc());
+	}
+
+	@Override
+	public int advance(int target) {
+		return findMatch(conjunction.advance(target));
+	}
+
+	/**
+	 * Skip the documents having both parts but not near each other.
+	 *
+	 * @param target
+	 *            is the current document of the conjunction.
+	 * @return the new current document.
+	 */
+	private int findMatch(int target) {
+		while (target != NO_MORE_DOCS) {
+			leftPositions = readPositions(left, leftPositions);
+			leftCount = count;
+			rightPositions = readPositions(right, rightPositions);
+			rightCount = count;
+			leftIndex = 0;
+			rightIndex = 0;
+			leftPartner = 0;
+			rightPartner = 0;
+			int start = nextMatch();
+			if (start != NO_MORE_POSITIONS) {
+				first = start;
+				frequency = -1;
+				break;
+			}
+			target = conjunction.nextDoc();
+		}
+		doc = target;
+		return doc;
+	}
+
+	/**
+	 * The number of positions read by the last readPositions.
+	 */
+	private int count;
+
+	/**
+	 * Read all the positions of a part in current document into an array.
+	 *
+	 * @param cursor
+	 *            is the cursor of the part.
+	 * @param positions
+	 *            is the array to reuse.
+	 * @return the array, it is grown if it is too small. The number of
+	 *         positions is put into count.
+	 */
+	private int[] readPositions(DocCursor cursor, int[] positions) {
+		count = 0;
+		int position = cursor.nextPosition();
+		while (position != NO_MORE_POSITIONS) {
+			if (count == positions.length) {
+				int[] grown = new int[count * 2];
+				System.arraycopy(positions, 0, grown, 0, count);
+				positions = grown;
+			}
+			positions[count++] = position;
+			position = cursor.nextPosition();
+		}
+		return positions;
+	}
+
+	/**
+	 * Find the next close pair from the current positions, the smaller one
+	 * moves on after it, so the next call finds the next pair. A position of
+	 * the other part before its end could not be its partner, so only the
+	 * first one starting after its end is checked.
+	 *
+	 * @return the smaller position of the pair, or NO_MORE_POSITIONS.
+	 */
+	private int nextMatch() {
+		while (leftIndex < leftCount && rightIndex < rightCount) {
+			// the words between the end of this part and the start of the
+			// other one, they never overlap.
+			int between = Integer.MAX_VALUE;
+			int start;
+			if (leftPositions[leftIndex] <= rightPositions[rightIndex]) {
+				start = leftPositions[leftIndex++];
+				int end = start + leftWidth;
+				while (rightPartner < rightCount
+						&& rightPositions[rightPartner] < end) {
+					rightPartner++;
+				}
+				if (rightPartner < rightCount) {
+					between = rightPositions[rightPartner] - end;
+				}
+			} else {
+				start = rightPositions[rightIndex++];
+				int end = start + rightWidth;
+				while (leftPartner < leftCount
+						&& leftPositions[leftPartner] < end) {
+					leftPartner++;
+				}
+				if (leftPartner < leftCount) {
+					between = leftPositions[leftPartner] - end;
+				}
+			}
+			if (between <= distance) {
+				return start;
+			}
+		}
+		return NO_MORE_POSITIONS;
+	}
+
+	@Override
+	public int frequency() {
+		if (frequency < 0) {
+			frequency = 1;
+			while (nextMatch() != NO_MORE_POSITIONS) {
+				frequency++;
+			}
+		}
+		return frequency;
+	}
+
+	@Override
+	public int firstPosition() {
+		return first;
+	}
+
+	@Override
+	public long cost() {
+		return conjunction.cost();
+	}
+}
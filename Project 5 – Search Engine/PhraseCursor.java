@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+
+/**
+ * This class PhraseCursor finds the documents where the words appear one
+ * right after another. The documents having all the words are found first by
+ * a ConjunctionCursor, and only for them the positions of the words are read
+ * and merged.
+ *
+ * The merge keeps one current position for every word, the word i must be at
+ * the position of the first word plus i. When one word is too far, the first
+ * word skips forward, so every position is read at most once and nothing is
+ * created while merging. A document is accepted as soon as the first match is
+ * found, the other matches are only counted if the frequency is asked for.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class PhraseCursor extends DocCursor {
+
+	/**
+	 * The cursors of the words in the order of the phrase.
+	 */
+	private DocCursor[] words;
+
+	/**
+	 * The cursor of the documents having all the words.
+	 */
+	private ConjunctionCursor conjunction;
+
+	/**
+	 * The current position of every word in current document.
+	 */
+	private int[] positions;
+
+	/**
+	 * The current document.
+	 */
+	private int doc;
+
+	/**
+	 * The position of the first match in current document.
+	 */
+	private int first;
+
+	/**
+	 * The start of a match found but not returned by nextPosition yet, or -1.
+	 */
+	private int pending;
+
+	/**
+	 * The number of matches in current document, or -1 if not counted yet.
+	 */
+	private int frequency;
+
+	/**
+	 * The constructor of PhraseCursor.
+	 *
+	 * @param list
+	 *            is the cursors of the words in the order of the phrase, at
+	 *            least two, they must not be moved yet.
+	 */
+	public PhraseCursor(ArrayList<? extends DocCursor> list) {
+		words = list.toArray(new DocCursor[list.size()]);
+		conjunction = new ConjunctionCursor(list);
+		positions = new int[words.length];
+		doc = -1;
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int nextDoc() {
+		return findMatch(conjunction.nextDoc());
+	}
+
+	@Override
+	public int advance(int target) {
+		return findMatch(conjunction.advance(target));
+	}
+
+	/**
+	 * Skip the documents having all the words but not the phrase.
+	 *
+	 * @param target
+	 *            is the current document of the conjunction.
+	 * @return the new current document.
+	 */
+	private int findMatch(int target) {
+		while (target != NO_MORE_DOCS) {
+			for (int i = 0; i < words.length; i++) {
+				positions[i] = words[i].nextPosition();
+			}
+			int start = nextMatch();
+			if (start != NO_MORE_POSITIONS) {
+				first = start;
+				pending = start;
+				frequency = -1;
+				break;
+			}
+			target = conjunction.nextDoc();
+		}
+		doc = target;
+		return doc;
+	}
+
+	/**
+	 * Find the next match from the current positions of the words. After a
+	 * match the first word moves on, so the next call finds the next match.
+	 *
+	 * @return the position of the first word of the match, or
+	 *         NO_MORE_POSITIONS.
+	 */
+	private int nextMatch() {
+		int start = positions[0];
+		int i = 1;
+		while (start != NO_MORE_POSITIONS && i < words.length) {
+			// the word i must be at start + i.
+			int wanted = start + i;
+			while (positions[i] < wanted) {
+				positions[i] = words[i].nextPosition();
+			}
+			if (positions[i] == wanted) {
+				i++;
+				continue;
+			}
+			if (positions[i] == NO_MORE_POSITIONS) {
+				return NO_MORE_POSITIONS;
+			}
+			// the word i is too far, so the first word must be at least here.
+			int least = positions[i] - i;
+			while (positions[0] < least) {
+				positions[0] = words[0].nextPosition();
+			}
+			start = positions[0];
+			i = 1;
+		}
+		if (start != NO_MORE_POSITIONS) {
+			positions[0] = words[0].nextPosition();
+		}
+		return start;
+	}
+
+	@Override
+	public int frequency() {
+		if (frequency < 0) {
+			// the first match is already found, count the others.
+			frequency = 1;
+			pending = -1;
+			while (nextMatch() != NO_MORE_POSITIONS) {
+				frequency++;
+			}
+		}
+		return frequency;
+	}
+
+	@Override
+	public int firstPosition() {
+		return first;
+	}
+
+	@Override
+	public long cost() {
+		return conjunction.cost();
+	}
+
+	/**
+	 * The frequency and nextPosition read the same positions, so only one of
+	 * them could be used for one document.
+	 */
+	@Override
+	public int nextPosition() {
+		if (pending >= 0) {
+			int start = pending;
+			pending = -1;
+			return start;
+		}
+		return nextMatch();
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * This class PositionCodec is used for compressing the positions of a word in
+ * one document. The positions are always increasing, so we only store the
+ * difference to the previous position as a varint, which usually takes one or
+ * two bytes instead of four. The positions are cut into blocks of BLOCK_SIZE
+ * values and the first value of every block is stored as it is, so a block can
+ * be decoded without the blocks before it.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class PositionCodec {
+
+	/**
+	 * The number of positions in one block.
+	 */
+	public static final int BLOCK_SIZE = 128;
+
+	/**
+	 * The most bytes one varint could take.
+	 */
+	public static final int MAX_VARINT_SIZE = 5;
+
+	/**
+	 * Encode the positions into a byte array with exactly the needed length.
+	 *
+	 * @param positions
+	 *            is the increasing positions of a word in one document.
+	 * @param count
+	 *            is the number of positions used in the array.
+	 * @return the encoded bytes.
+	 */
+	public static byte[] encode(int[] positions, int count) {
+		byte[] buffer = new byte[count * MAX_VARINT_SIZE];
+		int length = 0;
+		for (int i = 0; i < count; i++) {
+			length = writeVarint(buffer, length, delta(positions, i));
+		}
+		byte[] encoded = new byte[length];
+		System.arraycopy(buffer, 0, encoded, 0, length);
+		return encoded;
+	}
+
+	/**
+	 * Get the value which is stored for the position at index i, that is the
+	 * position itself at the start of a block, or the difference to the
+	 * previous position.
+	 *
+	 * @param positions
+	 *            is the increasing positions of a word.
+	 * @param i
+	 *            is the index of the position.
+	 * @return the value to encode.
+	 */
+	private static int delta(int[] positions, int i) {
+		if (i % BLOCK_SIZE == 0) {
+			return positions[i];
+		}
+		return positions[i] - positions[i - 1];
+	}
+
+	/**
+	 * Write one value as varint. There must be at least MAX_VARINT_SIZE bytes
+	 * left in the buffer.
+	 *
+	 * @param buffer
+	 *            is the buffer we write into.
+	 * @param offset
+	 *            is the place to start writing.
+	 * @param value
+	 *            is the value which must not be negative.
+	 * @return the offset after the written bytes.
+	 */
+	public static int writeVarint(byte[] buffer, int offset, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[offset++] = (byte) value;
+		return offset;
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * This class PositionReader is used for reading the positions of a word in one
+ * document, no matter they are stored as int array or compressed by
+ * PositionCodec. One reader could be reset and used again for every document,
+ * so reading positions does not create any object.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class PositionReader {
+
+	/**
+	 * The positions if they are not compressed, otherwise null.
+	 */
+	private int[] values;
+
+	/**
+	 * The compressed positions, otherwise null.
+	 */
+	private byte[] packed;
+
+	/**
+	 * The number of positions.
+	 */
+	private int count;
+
+	/**
+	 * The index of next position.
+	 */
+	private int index;
+
+	/**
+	 * The offset of next varint in packed.
+	 */
+	private int offset;
+
+	/**
+	 * The last position we returned.
+	 */
+	private int last;
+
+	/**
+	 * Start reading positions stored as int array.
+	 *
+	 * @param values
+	 *            is the array of positions.
+	 * @param count
+	 *            is the number of positions used in the array.
+	 */
+	void reset(int[] values, int count) {
+		this.values = values;
+		this.packed = null;
+		this.count = count;
+		this.index = 0;
+	}
+
+	/**
+	 * Start reading positions compressed by PositionCodec.
+	 *
+	 * @param packed
+	 *            is the compressed positions.
+	 * @param count
+	 *            is the number of positions.
+	 */
+	void reset(byte[] packed, int count) {
+		this.values = null;
+		this.packed = packed;
+		this.count = count;
+		this.index = 0;
+		this.offset = 0;
+		this.last = 0;
+	}
+
+	/**
+	 * @return the number of positions.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return true if there are more positions to read.
+	 */
+	public boolean hasNext() {
+		return index < count;
+	}
+
+	/**
+	 * @return the next position.
+	 */
+	public int next() {
+		if (values != null) {
+			return values[index++];
+		}
+		// read one varint
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = packed[offset++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+
+		// the first value of a block is not a difference.
+		if (index % PositionCodec.BLOCK_SIZE == 0) {
+			last = value;
+		} else {
+			last += value;
+		}
+		index++;
+		return last;
+	}
+}
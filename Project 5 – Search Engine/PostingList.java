@@ -0,0 +1,620 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * This class PostingList is used for storing all the documents and positions
+ * of one word in the InvertedIndex. Instead of boxing every position into a
+ * LinkedList node, the positions of every document are kept in a growable int
+ * array, and the documents are kept as int document IDs. If the list is
+ * compressed, the positions of every document are kept as bytes encoded by
+ * PositionCodec instead.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class PostingList {
+
+	/**
+	 * The number of documents in one block of the block maxima.
+	 */
+	public static final int MAX_BLOCK_SIZE = 64;
+
+	/**
+	 * The document IDs of this word, in the order they were added.
+	 */
+	private int[] docIds;
+
+	/**
+	 * The number of positions of every document.
+	 */
+	private int[] counts;
+
+	/**
+	 * The positions of this word, one int array for every document. The array
+	 * may be longer than the real number of positions, see counts. It is null
+	 * if the list is compressed.
+	 */
+	private int[][] positions;
+
+	/**
+	 * The compressed positions of this word, one byte array for every
+	 * document. It is null if the list is not compressed.
+	 */
+	private byte[][] packed;
+
+	/**
+	 * The number of bytes used in every packed array.
+	 */
+	private int[] lengths;
+
+	/**
+	 * The last position of every document, needed for encoding the next
+	 * position added to a compressed list.
+	 */
+	private int[] lasts;
+
+	/**
+	 * The number of documents in this posting list.
+	 */
+	private int size;
+
+	/**
+	 * The biggest frequency of one document, it is the upper bound of the
+	 * score this word could give to a document.
+	 */
+	private int maxFrequency;
+
+	/**
+	 * The last document ID and the biggest frequency of every block of
+	 * MAX_BLOCK_SIZE documents, or null if they are not computed yet.
+	 */
+	private volatile int[] blockMaxima;
+
+	/**
+	 * True if the documents are in increasing order of document ID, which is
+	 * needed for intersecting lists.
+	 */
+	private boolean sorted;
+
+	/**
+	 * The index of every document by its ID, only made when positions are
+	 * added to a list which is not sorted, or null.
+	 */
+	private HashMap<Integer, Integer> slots;
+
+	/**
+	 * The constructor of PostingList.
+	 */
+	public PostingList() {
+		this(false);
+	}
+
+	/**
+	 * The constructor of PostingList.
+	 *
+	 * @param compressed
+	 *            is true if the positions should be compressed.
+	 */
+	public PostingList(boolean compressed) {
+		docIds = new int[1];
+		counts = new int[1];
+		if (compressed) {
+			packed = new byte[1][];
+			lengths = new int[1];
+			lasts = new int[1];
+		} else {
+			positions = new int[1][];
+		}
+		size = 0;
+		sorted = true;
+	}
+
+	/**
+	 * @return true if the documents are in increasing order of document ID.
+	 */
+	public boolean isSorted() {
+		return sorted;
+	}
+
+	/**
+	 * Copy this list, so it could be read while more positions are added to
+	 * this list. Must be called while no thread is adding to this list.
+	 *
+	 * The positions are not copied. Adding only writes after the last
+	 * position of a document or replaces the array, so the copy still sees
+	 * the positions it counted.
+	 *
+	 * @return the copy of this list.
+	 */
+	public PostingList copy() {
+		PostingList copy = new PostingList(packed != null);
+		copy.docIds = docIds.clone();
+		copy.counts = counts.clone();
+		if (packed == null) {
+			copy.positions = positions.clone();
+		} else {
+			copy.packed = packed.clone();
+			copy.lengths = lengths.clone();
+			copy.lasts = lasts.clone();
+		}
+		copy.size = size;
+		copy.maxFrequency = maxFrequency;
+		copy.sorted = sorted;
+		return copy;
+	}
+
+	/**
+	 * @return a new list with the documents of this list in increasing order
+	 *         of document ID.
+	 */
+	public PostingList sortByDocId() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return docIds[a] < docIds[b] ? -1 : docIds[a] == docIds[b] ? 0
+						: 1;
+			}
+		});
+
+		PostingList list = new PostingList(packed != null);
+		for (int i : order) {
+			list.addAll(this, i, docIds[i]);
+		}
+		return list;
+	}
+
+	/**
+	 * Join the entries of the same document into one. A document could be in
+	 * the lists of two segments, for example when some of its words are added
+	 * by indexData and the others by addDocument, or the same local index is
+	 * added twice. The positions are merged in order, and a position found in
+	 * both entries is kept once. The list must be sorted.
+	 *
+	 * @return this list if every document is in it only once, or a new list.
+	 */
+	public PostingList joinDocuments() {
+		int i = 1;
+		while (i < size && docIds[i - 1] != docIds[i]) {
+			i++;
+		}
+		if (i >= size) {
+			return this;
+		}
+
+		PostingList list = new PostingList(packed != null);
+		PositionReader reader = new PositionReader();
+		int start = 0;
+		while (start < size) {
+			int end = start + 1;
+			int total = counts[start];
+			while (end < size && docIds[end] == docIds[start]) {
+				total += counts[end];
+				end++;
+			}
+			if (end == start + 1) {
+				list.addAll(this, start, docIds[start]);
+			} else {
+				int[] values = new int[total];
+				int count = 0;
+				for (int j = start; j < end; j++) {
+					getPositions(j, reader);
+					while (reader.hasNext()) {
+						values[count++] = reader.next();
+					}
+				}
+				Arrays.sort(values, 0, count);
+				int unique = 0;
+				for (int j = 0; j < count; j++) {
+					if (unique == 0 || values[j] != values[unique - 1]) {
+						values[unique++] = values[j];
+					}
+				}
+				list.addPositions(docIds[start], values, unique);
+			}
+			start = end;
+		}
+		return list;
+	}
+
+	/**
+	 * @return true if the positions are compressed.
+	 */
+	public boolean isCompressed() {
+		return packed != null;
+	}
+
+	/**
+	 * Add one position of the word in the document. The positions of one
+	 * document are normally added one after another, so the last document is
+	 * checked first.
+	 *
+	 * @param docId
+	 *            is the ID of document containing the word.
+	 * @param position
+	 *            is the place of the word in the document.
+	 */
+	public void add(int docId, int position) {
+		int i = find(docId);
+		// new document for this word
+		if (i < 0) {
+			i = newDocument(docId);
+		}
+
+		if (packed == null) {
+			// grow the positions array of the document if it is full.
+			if (positions[i] == null) {
+				positions[i] = new int[2];
+			} else if (counts[i] == positions[i].length) {
+				int[] grown = new int[positions[i].length * 2];
+				System.arraycopy(positions[i], 0, grown, 0, counts[i]);
+				positions[i] = grown;
+			}
+			positions[i][counts[i]] = position;
+		} else {
+			// grow the packed array if there is no room for one more varint.
+			if (packed[i] == null) {
+				packed[i] = new byte[PositionCodec.MAX_VARINT_SIZE * 2];
+			} else if (lengths[i] + PositionCodec.MAX_VARINT_SIZE > packed[i].length) {
+				byte[] grown = new byte[packed[i].length * 2];
+				System.arraycopy(packed[i], 0, grown, 0, lengths[i]);
+				packed[i] = grown;
+			}
+			int value = counts[i] % PositionCodec.BLOCK_SIZE == 0 ? position
+					: position - lasts[i];
+			lengths[i] = PositionCodec.writeVarint(packed[i], lengths[i],
+					value);
+			lasts[i] = position;
+		}
+		counts[i]++;
+		updateMaxFrequency(counts[i]);
+	}
+
+	/**
+	 * Add all positions of the word in one document of another list at once.
+	 * The positions are copied with exactly the needed length, so a merged
+	 * posting list does not keep any unused space.
+	 *
+	 * @param other
+	 *            is the list containing the document.
+	 * @param j
+	 *            is the index of document in the other list.
+	 * @param docId
+	 *            is the ID of document in this list.
+	 */
+	public void addAll(PostingList other, int j, int docId) {
+		int i = newDocument(docId);
+		int count = other.counts[j];
+		counts[i] = count;
+		updateMaxFrequency(count);
+
+		if (packed == null) {
+			if (other.packed == null) {
+				positions[i] = new int[count];
+				System.arraycopy(other.positions[j], 0, positions[i], 0, count);
+			} else {
+				positions[i] = other.decode(j);
+			}
+		} else {
+			if (other.packed == null) {
+				packed[i] = PositionCodec.encode(other.positions[j], count);
+				lasts[i] = other.positions[j][count - 1];
+			} else {
+				packed[i] = new byte[other.lengths[j]];
+				System.arraycopy(other.packed[j], 0, packed[i], 0,
+						other.lengths[j]);
+				lasts[i] = other.lasts[j];
+			}
+			lengths[i] = packed[i].length;
+		}
+	}
+
+	/**
+	 * Add all positions of the word in one document at once, the positions
+	 * are copied with exactly the needed length.
+	 *
+	 * @param docId
+	 *            is the ID of document containing the word.
+	 * @param values
+	 *            is the positions in increasing order.
+	 * @param count
+	 *            is the number of positions in values.
+	 */
+	public void addPositions(int docId, int[] values, int count) {
+		int i = newDocument(docId);
+		counts[i] = count;
+		updateMaxFrequency(count);
+
+		if (packed == null) {
+			positions[i] = new int[count];
+			System.arraycopy(values, 0, positions[i], 0, count);
+		} else {
+			packed[i] = PositionCodec.encode(values, count);
+			lengths[i] = packed[i].length;
+			lasts[i] = values[count - 1];
+		}
+	}
+
+	/**
+	 * Add all positions of the word in one document, which are encoded by
+	 * PositionCodec.
+	 *
+	 * @param docId
+	 *            is the ID of document containing the word.
+	 * @param encoded
+	 *            is the encoded positions, it is kept by this list.
+	 * @param count
+	 *            is the number of positions.
+	 */
+	public void addEncoded(int docId, byte[] encoded, int count) {
+		int i = newDocument(docId);
+		counts[i] = count;
+		updateMaxFrequency(count);
+
+		if (packed == null) {
+			PositionReader reader = new PositionReader();
+			reader.reset(encoded, count);
+			positions[i] = new int[count];
+			for (int j = 0; j < count; j++) {
+				positions[i][j] = reader.next();
+			}
+		} else {
+			packed[i] = encoded;
+			lengths[i] = encoded.length;
+			// the last position is needed if more positions are added.
+			PositionReader reader = new PositionReader();
+			reader.reset(encoded, count);
+			while (reader.hasNext()) {
+				lasts[i] = reader.next();
+			}
+		}
+	}
+
+	/**
+	 * @param i
+	 *            is the index of document in this list.
+	 * @return the positions of the document encoded by PositionCodec. The
+	 *         returned array must not be changed.
+	 */
+	public byte[] getEncodedPositions(int i) {
+		if (packed == null) {
+			return PositionCodec.encode(positions[i], counts[i]);
+		}
+		if (lengths[i] == packed[i].length) {
+			return packed[i];
+		}
+		byte[] encoded = new byte[lengths[i]];
+		System.arraycopy(packed[i], 0, encoded, 0, lengths[i]);
+		return encoded;
+	}
+
+	/**
+	 * Decode the compressed positions of one document into an int array.
+	 *
+	 * @param i
+	 *            is the index of document in this list.
+	 * @return the positions.
+	 */
+	private int[] decode(int i) {
+		int[] values = new int[counts[i]];
+		PositionReader reader = getPositions(i, new PositionReader());
+		for (int j = 0; j < values.length; j++) {
+			values[j] = reader.next();
+		}
+		return values;
+	}
+
+	/**
+	 * Find a document without walking the list. A sorted list is searched by
+	 * binary search, and a new document bigger than the last one is found at
+	 * once. When documents are added by many threads the list may not be
+	 * sorted, then the index of every document is kept in slots.
+	 *
+	 * @param docId
+	 *            is the ID of the document.
+	 * @return the index of the document, or -1 if it is not in the list.
+	 */
+	private int find(int docId) {
+		if (size == 0) {
+			return -1;
+		}
+		if (docIds[size - 1] == docId) {
+			return size - 1;
+		}
+		if (sorted) {
+			if (docId > docIds[size - 1]) {
+				return -1;
+			}
+			int i = Arrays.binarySearch(docIds, 0, size, docId);
+			return i >= 0 ? i : -1;
+		}
+		if (slots == null) {
+			slots = new HashMap<Integer, Integer>();
+			for (int i = 0; i < size; i++) {
+				slots.put(docIds[i], i);
+			}
+		}
+		Integer slot = slots.get(docId);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * Append a new document to the end of the list, growing the arrays if
+	 * needed.
+	 *
+	 * @param docId
+	 *            is the ID of the new document.
+	 * @return the index of the new document in this list.
+	 */
+	private int newDocument(int docId) {
+		if (size == docIds.length) {
+			int length = docIds.length * 2;
+			docIds = grow(docIds, length);
+			counts = grow(counts, length);
+			if (packed == null) {
+				int[][] grownPositions = new int[length][];
+				System.arraycopy(positions, 0, grownPositions, 0, size);
+				positions = grownPositions;
+			} else {
+				byte[][] grownPacked = new byte[length][];
+				System.arraycopy(packed, 0, grownPacked, 0, size);
+				packed = grownPacked;
+				lengths = grow(lengths, length);
+				lasts = grow(lasts, length);
+			}
+		}
+		if (size > 0 && docId < docIds[size - 1]) {
+			sorted = false;
+		}
+		docIds[size] = docId;
+		counts[size] = 0;
+		if (slots != null) {
+			slots.put(docId, size);
+		}
+		return size++;
+	}
+
+	/**
+	 * @param frequency
+	 *            is the new frequency of a document.
+	 */
+	private void updateMaxFrequency(int frequency) {
+		if (frequency > maxFrequency) {
+			maxFrequency = frequency;
+		}
+	}
+
+	/**
+	 * @param array
+	 *            is the array to grow.
+	 * @param length
+	 *            is the new length.
+	 * @return a copy of the array with the new length.
+	 */
+	private int[] grow(int[] array, int length) {
+		int[] grown = new int[length];
+		System.arraycopy(array, 0, grown, 0, size);
+		return grown;
+	}
+
+	/**
+	 * @return the number of documents in this list.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i
+	 *            is the index of document in this list.
+	 * @return the document ID.
+	 */
+	public int getDocId(int i) {
+		return docIds[i];
+	}
+
+	/**
+	 * @return the biggest frequency of one document in this list.
+	 */
+	public int getMaxFrequency() {
+		return maxFrequency;
+	}
+
+	/**
+	 * The block maxima of a sorted list are computed once and kept, so this
+	 * must only be called when no more documents are added to this list, like
+	 * the lists of a segment or a copy.
+	 *
+	 * @return the last document ID and the biggest frequency of every block,
+	 *         at 2b and 2b + 1 for the block b, or null if this list is not
+	 *         sorted.
+	 */
+	public int[] getBlockMaxima() {
+		if (!sorted) {
+			return null;
+		}
+		int[] maxima = blockMaxima;
+		if (maxima == null) {
+			// two threads may compute the same maxima, which is harmless.
+			maxima = computeBlockMaxima(null);
+			blockMaxima = maxima;
+		}
+		return maxima;
+	}
+
+	/**
+	 * @param order
+	 *            is the indexes of the documents in increasing order of
+	 *            document ID, or null if this list is sorted.
+	 * @return the last document ID and the biggest frequency of every block
+	 *         of MAX_BLOCK_SIZE documents in the order.
+	 */
+	public int[] computeBlockMaxima(int[] order) {
+		int blocks = (size + MAX_BLOCK_SIZE - 1) / MAX_BLOCK_SIZE;
+		int[] maxima = new int[blocks * 2];
+		for (int b = 0; b < blocks; b++) {
+			int end = Math.min(size, (b + 1) * MAX_BLOCK_SIZE);
+			int max = 0;
+			for (int j = b * MAX_BLOCK_SIZE; j < end; j++) {
+				max = Math.max(max, counts[order == null ? j : order[j]]);
+			}
+			maxima[2 * b] = docIds[order == null ? end - 1 : order[end - 1]];
+			maxima[2 * b + 1] = max;
+		}
+		return maxima;
+	}
+
+	/**
+	 * @param i
+	 *            is the index of document in this list.
+	 * @return how many times the word appears in the document.
+	 */
+	public int getFrequency(int i) {
+		return counts[i];
+	}
+
+	/**
+	 * @param i
+	 *            is the index of document in this list.
+	 * @return the first position of the word in the document.
+	 */
+	public int getFirstPosition(int i) {
+		if (packed == null) {
+			return positions[i][0];
+		}
+		// the first value of the first block is the position itself, so only
+		// one varint need to be read.
+		byte[] bytes = packed[i];
+		int value = 0;
+		int shift = 0;
+		int offset = 0;
+		byte b;
+		do {
+			b = bytes[offset++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Start reading the positions of one document.
+	 *
+	 * @param i
+	 *            is the index of document in this list.
+	 * @param reader
+	 *            is the reader to reuse.
+	 * @return the reader reset to the positions of the document.
+	 */
+	public PositionReader getPositions(int i, PositionReader reader) {
+		if (packed == null) {
+			reader.reset(positions[i], counts[i]);
+		} else {
+			reader.reset(packed[i], counts[i]);
+		}
+		return reader;
+	}
+}
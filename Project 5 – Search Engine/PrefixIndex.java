@@ -0,0 +1,465 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class PrefixIndex keeps the search results of short prefixes ready. A
+ * query like "a" or "th" matches thousands of words, so searching it walks all
+ * their PostingLists every time. Here every prefix up to a length has one list
+ * with the frequency and first position of every document already added up,
+ * so searching it is one list read.
+ *
+ * The lists are updated when words are added to the index. A document may be
+ * added to a list more than once, for example when its words are added one by
+ * one, then the parts are joined when searching like the PostingLists of
+ * different words. The entries of a deleted or replaced document are skipped
+ * when searching, and dropped after a merge of the segments once enough
+ * documents are retired.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class PrefixIndex {
+
+	/**
+	 * The default length of the longest prefix kept, 0 keeps none.
+	 */
+	public static final int DEFAULT_LENGTH = 2;
+
+	/**
+	 * The lists are purged when the retired documents grow by this part of
+	 * the live documents, so the work of walking all the lists is shared by
+	 * many retired documents.
+	 */
+	private static final int PURGE_RATIO = 8;
+
+	/**
+	 * The length of the longest prefix kept.
+	 */
+	private int maxLength;
+
+	/**
+	 * The list of every prefix.
+	 */
+	private HashMap<String, PrefixList> lists;
+
+	/**
+	 * This lock protects lists, every PrefixList has its own lock.
+	 */
+	private MultiReadersLock lock;
+
+	/**
+	 * The number of retired documents when the lists were purged last time.
+	 */
+	private int purgedCount;
+
+	/**
+	 * The constructor of PrefixIndex.
+	 *
+	 * @param maxLength
+	 *            is the length of the longest prefix kept.
+	 */
+	public PrefixIndex(int maxLength) {
+		this.maxLength = maxLength;
+		lists = new HashMap<String, PrefixList>();
+		lock = new MultiReadersLock();
+		purgedCount = 0;
+	}
+
+	/**
+	 * @return the length of the longest prefix kept.
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * @param word
+	 *            is a search word, not an exact one.
+	 * @return true if the results of the prefix are kept here.
+	 */
+	public boolean covers(String word) {
+		return !word.isEmpty() && word.length() <= maxLength;
+	}
+
+	/**
+	 * @param prefix
+	 *            is the prefix.
+	 * @return the list of the prefix, or null if no word starts with it.
+	 */
+	private PrefixList getList(String prefix) {
+		lock.acquireReadLock();
+		PrefixList list = lists.get(prefix);
+		lock.releaseReadLock();
+		return list;
+	}
+
+	/**
+	 * @param prefix
+	 *            is the prefix.
+	 * @return the list of the prefix, a new one is created if it is new.
+	 */
+	private PrefixList getOrCreateList(String prefix) {
+		PrefixList list = getList(prefix);
+		if (list == null) {
+			lock.acquireWriteLock();
+			list = lists.get(prefix);
+			if (list == null) {
+				list = new PrefixList();
+				lists.put(prefix, list);
+			}
+			lock.releaseWriteLock();
+		}
+		return list;
+	}
+
+	/**
+	 * Add one word of a document to the lists of its prefixes.
+	 *
+	 * @param docId
+	 *            is the ID of the document.
+	 * @param word
+	 *            is the word.
+	 * @param position
+	 *            is the position of the word, from 1.
+	 */
+	public void add(int docId, String word, int position) {
+		int length = Math.min(word.length(), maxLength);
+		for (int i = 1; i <= length; i++) {
+			getOrCreateList(word.substring(0, i)).add(docId, 1, position);
+		}
+	}
+
+	/**
+	 * Add all the words of a segment. The sorted words with the same prefix
+	 * are next to each other, so the results of every prefix are added up
+	 * for the whole segment first, and every list is only locked once.
+	 *
+	 * @param segment
+	 *            is the segment added to the index.
+	 */
+	public void add(IndexSegment segment) {
+		String[] terms = segment.getTerms();
+		// the current prefix of every length and its results in the segment.
+		String[] prefixes = new String[maxLength + 1];
+		PrefixList[] parts = new PrefixList[maxLength + 1];
+
+		for (int t = 0; t < terms.length; t++) {
+			PostingList postings = segment.getPostingList(t);
+			int length = Math.min(terms[t].length(), maxLength);
+			for (int i = 1; i <= length; i++) {
+				if (prefixes[i] == null || !terms[t].startsWith(prefixes[i])) {
+					flush(prefixes[i], parts[i]);
+					prefixes[i] = terms[t].substring(0, i);
+					parts[i] = new PrefixList();
+				}
+				for (int j = 0; j < postings.size(); j++) {
+					parts[i].add(postings.getDocId(j), postings.getFrequency(j),
+							postings.getFirstPosition(j));
+				}
+			}
+		}
+		for (int i = 1; i <= maxLength; i++) {
+			flush(prefixes[i], parts[i]);
+		}
+	}
+
+	/**
+	 * Add the results of a prefix in one segment to its list.
+	 *
+	 * @param prefix
+	 *            is the prefix, or null if there is nothing to add.
+	 * @param part
+	 *            is the results of the prefix in the segment.
+	 */
+	private void flush(String prefix, PrefixList part) {
+		if (prefix != null) {
+			part.compact();
+			getOrCreateList(prefix).addAll(part);
+		}
+	}
+
+	/**
+	 * Get the entries of a prefix for a search. A purge replaces the entries
+	 * instead of changing them, so a search which read the entries together
+	 * with its deleted IDs still finds a document dropped later.
+	 *
+	 * @param prefix
+	 *            is a prefix covered by this index.
+	 * @return the entries of the prefix, or null if no word starts with it.
+	 */
+	public Entries getEntries(String prefix) {
+		PrefixList list = getList(prefix);
+		return list == null ? null : list.entries;
+	}
+
+	/**
+	 * Drop the entries of the retired documents from all the lists, it is
+	 * called after the segments are merged. Nothing is done until the
+	 * retired documents grow by 1 / PURGE_RATIO of the live documents since
+	 * the last purge.
+	 *
+	 * @param retired
+	 *            is the retired bits of the DocumentTable, it could be null.
+	 * @param documentCount
+	 *            is the number of IDs in the DocumentTable.
+	 */
+	public synchronized void purge(long[] retired, int documentCount) {
+		if (retired == null) {
+			return;
+		}
+		int count = 0;
+		for (long bits : retired) {
+			count += Long.bitCount(bits);
+		}
+		if (count - purgedCount < Math.max(1, (documentCount - count)
+				/ PURGE_RATIO)) {
+			return;
+		}
+		purgedCount = count;
+
+		lock.acquireReadLock();
+		ArrayList<PrefixList> all = new ArrayList<PrefixList>(lists.values());
+		lock.releaseReadLock();
+		for (PrefixList list : all) {
+			list.purge(retired);
+		}
+	}
+
+	/**
+	 * @param prefix
+	 *            is a prefix covered by this index.
+	 * @return the number of entries in the list of the prefix.
+	 */
+	public int size(String prefix) {
+		PrefixList list = getList(prefix);
+		return list == null ? 0 : list.size();
+	}
+
+	/**
+	 * This class PrefixList is the added up results of one prefix, one entry
+	 * for every document in the order they were added. The entries are
+	 * changed under the lock of the list, but the searches read them without
+	 * any lock.
+	 *
+	 */
+	private static class PrefixList {
+
+		/**
+		 * The entries read by the searches. New entries are appended to its
+		 * arrays, a new Entries replaces it when the arrays are full or some
+		 * entries are dropped, so a search always reads whole entries.
+		 */
+		private volatile Entries entries;
+
+		/**
+		 * Constructor of PrefixList.
+		 */
+		public PrefixList() {
+			entries = new Entries(4);
+		}
+
+		/**
+		 * Add the results of a document, they are joined with the last entry
+		 * if it is the same document.
+		 *
+		 * @param docId
+		 *            is the ID of the document.
+		 * @param frequency
+		 *            is how many times the words appear in the document.
+		 * @param first
+		 *            is the first position of the words.
+		 */
+		public synchronized void add(int docId, int frequency, int first) {
+			Entries current = entries;
+			int size = current.size;
+			if (size > 0 && current.docIds[size - 1] == docId) {
+				// a search reading the entry now sees the old or the new
+				// values, the same as if it ran a moment before or after.
+				current.frequencies[size - 1] += frequency;
+				current.firsts[size - 1] = Math.min(
+						current.firsts[size - 1], first);
+				return;
+			}
+			if (size == current.docIds.length) {
+				current = current.copy(size, size * 2);
+				entries = current;
+			}
+			current.docIds[size] = docId;
+			current.frequencies[size] = frequency;
+			current.firsts[size] = first;
+			// the entry is written before the searches could see it.
+			current.size = size + 1;
+		}
+
+		/**
+		 * Join all the entries of the same document into one. The words of a
+		 * segment with many documents give the documents of every word in
+		 * order, so the entries are sorted by document ID first. It is only
+		 * used for a list not searched yet.
+		 */
+		public synchronized void compact() {
+			Entries old = entries;
+			int count = old.size;
+			boolean sorted = true;
+			for (int i = 1; i < count && sorted; i++) {
+				sorted = old.docIds[i - 1] <= old.docIds[i];
+			}
+			entries = new Entries(Math.max(count, 4));
+			if (!sorted) {
+				long[] order = new long[count];
+				for (int i = 0; i < count; i++) {
+					// the document ID in the high bits sorts the entries.
+					order[i] = ((long) old.docIds[i] << 32) | i;
+				}
+				Arrays.sort(order);
+				for (int i = 0; i < count; i++) {
+					int j = (int) order[i];
+					add((int) (order[i] >>> 32), old.frequencies[j],
+							old.firsts[j]);
+				}
+				return;
+			}
+			// sorted entries only need the same documents joined.
+			for (int i = 0; i < count; i++) {
+				add(old.docIds[i], old.frequencies[i], old.firsts[i]);
+			}
+		}
+
+		/**
+		 * Add all the entries of another list.
+		 *
+		 * @param other
+		 *            is a list only used by the current thread.
+		 */
+		public synchronized void addAll(PrefixList other) {
+			Entries added = other.entries;
+			for (int i = 0; i < added.size; i++) {
+				add(added.docIds[i], added.frequencies[i], added.firsts[i]);
+			}
+		}
+
+		/**
+		 * Drop the entries of the retired documents.
+		 *
+		 * @param retired
+		 *            is the retired bits of the DocumentTable.
+		 */
+		public synchronized void purge(long[] retired) {
+			Entries current = entries;
+			int kept = 0;
+			for (int i = 0; i < current.size; i++) {
+				if (!DocumentTable.isRetired(retired, current.docIds[i])) {
+					kept++;
+				}
+			}
+			if (kept == current.size) {
+				return;
+			}
+			Entries purged = new Entries(Math.max(kept, 4));
+			int j = 0;
+			for (int i = 0; i < current.size; i++) {
+				if (!DocumentTable.isRetired(retired, current.docIds[i])) {
+					purged.docIds[j] = current.docIds[i];
+					purged.frequencies[j] = current.frequencies[i];
+					purged.firsts[j] = current.firsts[i];
+					j++;
+				}
+			}
+			purged.size = kept;
+			entries = purged;
+		}
+
+		/**
+		 * @return the number of entries.
+		 */
+		public int size() {
+			return entries.size;
+		}
+	}
+
+	/**
+	 * This class Entries is the arrays of a PrefixList. The arrays are only
+	 * appended to, the entries before size never move, so the searches read
+	 * them without any lock.
+	 *
+	 */
+	public static class Entries {
+
+		/**
+		 * The document ID, frequency and first position of every entry.
+		 */
+		private final int[] docIds;
+		private final int[] frequencies;
+		private final int[] firsts;
+
+		/**
+		 * The number of entries, it is written after the entry.
+		 */
+		private volatile int size;
+
+		/**
+		 * Constructor of Entries.
+		 *
+		 * @param capacity
+		 *            is the length of the arrays.
+		 */
+		public Entries(int capacity) {
+			docIds = new int[capacity];
+			frequencies = new int[capacity];
+			firsts = new int[capacity];
+			size = 0;
+		}
+
+		/**
+		 * @return the number of entries.
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Add all the entries to the search results, the deleted documents
+		 * are skipped. The entries added meanwhile may not be seen.
+		 *
+		 * @param infoMap
+		 *            is the search results of every document.
+		 * @param documents
+		 *            is the DocumentTable of the index.
+		 * @param deleted
+		 *            is the deleted IDs read at the start of the search.
+		 */
+		public void collect(HashMap<Integer, SearchResult> infoMap,
+				DocumentTable documents, long[] deleted) {
+			int count = size;
+			for (int i = 0; i < count; i++) {
+				if (DocumentTable.isDeleted(deleted, docIds[i])) {
+					continue;
+				}
+				SearchResult result = infoMap.get(docIds[i]);
+				if (result == null) {
+					infoMap.put(docIds[i], new SearchResult(documents,
+							docIds[i], frequencies[i], firsts[i]));
+				} else {
+					result.updateValues(frequencies[i], firsts[i]);
+				}
+			}
+		}
+
+		/**
+		 * @param count
+		 *            is the number of entries to copy.
+		 * @param capacity
+		 *            is the length of the new arrays.
+		 * @return a copy of the first entries with longer arrays.
+		 */
+		public Entries copy(int count, int capacity) {
+			Entries copy = new Entries(capacity);
+			System.arraycopy(docIds, 0, copy.docIds, 0, count);
+			System.arraycopy(frequencies, 0, copy.frequencies, 0, count);
+			System.arraycopy(firsts, 0, copy.firsts, 0, count);
+			copy.size = count;
+			return copy;
+		}
+	}
+}
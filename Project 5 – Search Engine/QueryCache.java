@@ -0,0 +1,436 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class QueryCache keeps the results of recent searches in front of an
+ * InvertedIndex, because the same queries are searched again and again.
+ *
+ * The cache is a segmented LRU. A new result goes into the probation part,
+ * and it is moved into the protected part when it is asked for again, so one
+ * burst of queries searched only once could not push out the popular ones.
+ * The size of the cache is limited by an estimate of the memory used by the
+ * results.
+ *
+ * Every result remembers the version of the index when it was searched, and
+ * it is not used after the index has changed. A hit only locks the cache, not
+ * the index.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class QueryCache {
+
+	/**
+	 * The estimated bytes of one entry without its key and results.
+	 */
+	private static final int ENTRY_BYTES = 96;
+
+	/**
+	 * The estimated bytes of one SearchResult in a cached list.
+	 */
+	private static final int RESULT_BYTES = 40;
+
+	/**
+	 * The percent of the memory budget for the protected part.
+	 */
+	private static final int PROTECTED_PERCENT = 80;
+
+	/**
+	 * The index to search when the result is not in the cache.
+	 */
+	private InvertedIndex index;
+
+	/**
+	 * The memory budget in bytes.
+	 */
+	private long maxBytes;
+
+	/**
+	 * The entries asked for only once, in the order of last use.
+	 */
+	private LinkedHashMap<String, Entry> probation;
+
+	/**
+	 * The entries asked for more than once, in the order of last use.
+	 */
+	private LinkedHashMap<String, Entry> protectedEntries;
+
+	/**
+	 * The estimated bytes used by the probation and protected parts.
+	 */
+	private long probationBytes;
+	private long protectedBytes;
+
+	/**
+	 * The counters of this cache.
+	 */
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long loadTime;
+
+	/**
+	 * The constructor of QueryCache.
+	 *
+	 * @param index
+	 *            is the index to search.
+	 * @param maxBytes
+	 *            is the memory budget of the cached results in bytes, nothing
+	 *            is cached if it is 0.
+	 */
+	public QueryCache(InvertedIndex index, long maxBytes) {
+		this.index = index;
+		this.maxBytes = maxBytes;
+		// true means the order of last use instead of the order of insertion.
+		probation = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		protectedEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		probationBytes = 0;
+		protectedBytes = 0;
+	}
+
+	/**
+	 * @return the index behind this cache.
+	 */
+	public InvertedIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Search the keywords like the searchResult method of InvertedIndex. The
+	 * returned list is shared by the cache and must not be changed.
+	 *
+	 * @param keyWords
+	 *            is the normalized words to search.
+	 * @return the sorted search results.
+	 */
+	public ArrayList<SearchResult> searchResult(String[] keyWords) {
+		return searchResult(keyWords, -1);
+	}
+
+	/**
+	 * Search the best k results like the searchResult method of InvertedIndex.
+	 * The returned list is shared by the cache and must not be changed.
+	 *
+	 * @param keyWords
+	 *            is the normalized words to search.
+	 * @param k
+	 *            is the number of results needed, or -1 for all of them.
+	 * @return the sorted search results.
+	 */
+	public ArrayList<SearchResult> searchResult(String[] keyWords, int k) {
+		return searchResult(keyWords, k, index.newBudget());
+	}
+
+	/**
+	 * Search the best k results within a budget. The partial results of a
+	 * search stopped by its budget are not cached, a cached result is always
+	 * complete.
+	 *
+	 * @param keyWords
+	 *            is the normalized words to search.
+	 * @param k
+	 *            is the number of results needed, or -1 for all of them.
+	 * @param budget
+	 *            is the budget used if the search is not cached.
+	 * @return the sorted search results.
+	 */
+	public ArrayList<SearchResult> searchResult(String[] keyWords, int k,
+			SearchBudget budget) {
+		String key = getKey(keyWords, k);
+		// the version must be read before searching, so a change of the index
+		// during the search makes this result out of date.
+		long version = index.getVersion();
+
+		ArrayList<SearchResult> results = get(key, version);
+		if (results != null) {
+			return results;
+		}
+
+		// two threads missing the same key at the same time both search it,
+		// the cache is never locked while searching.
+		long start = System.nanoTime();
+		results = index.searchResult(keyWords, k, budget);
+		long time = System.nanoTime() - start;
+
+		if (budget.isTruncated()) {
+			addLoadTime(time);
+			return results;
+		}
+		put(key, new Entry(results, version, getBytes(key, results)), time);
+		return results;
+	}
+
+	/**
+	 * Search a boolean query like the searchQuery method of InvertedIndex.
+	 * The returned list is shared by the cache and must not be changed.
+	 *
+	 * @param query
+	 *            is the parsed query.
+	 * @param k
+	 *            is the number of results needed, or -1 for all of them.
+	 * @return the sorted search results.
+	 */
+	public ArrayList<SearchResult> searchQuery(QueryNode query, int k) {
+		return searchQuery(query, k, index.newBudget());
+	}
+
+	/**
+	 * Search a boolean query within a budget. Like searchResult, the partial
+	 * results of a query stopped by its budget are not cached.
+	 *
+	 * @param query
+	 *            is the parsed query.
+	 * @param k
+	 *            is the number of results needed, or -1 for all of them.
+	 * @param budget
+	 *            is the budget used if the query is not cached.
+	 * @return the sorted search results.
+	 */
+	public ArrayList<SearchResult> searchQuery(QueryNode query, int k,
+			SearchBudget budget) {
+		// the words never contain a space, so this key could not be the
+		// same as a key of searchResult.
+		String key = "query " + k + " " + query;
+		long version = index.getVersion();
+
+		ArrayList<SearchResult> results = get(key, version);
+		if (results != null) {
+			return results;
+		}
+
+		long start = System.nanoTime();
+		results = index.searchQuery(query, k, budget);
+		long time = System.nanoTime() - start;
+
+		if (budget.isTruncated()) {
+			addLoadTime(time);
+			return results;
+		}
+		put(key, new Entry(results, version, getBytes(key, results)), time);
+		return results;
+	}
+
+	/**
+	 * @param keyWords
+	 *            is the words to search.
+	 * @param k
+	 *            is the number of results needed.
+	 * @return the key of the cache.
+	 */
+	private static String getKey(String[] keyWords, int k) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(k);
+		for (String word : keyWords) {
+			builder.append(' ').append(word);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @param key
+	 *            is the key of the cache.
+	 * @param results
+	 *            is the results to cache.
+	 * @return the estimated bytes of the entry.
+	 */
+	private static long getBytes(String key, ArrayList<SearchResult> results) {
+		return ENTRY_BYTES + 2L * key.length() + (long) RESULT_BYTES
+				* results.size();
+	}
+
+	/**
+	 * Find the results in the cache, an entry found in the probation part is
+	 * moved into the protected part.
+	 *
+	 * @param key
+	 *            is the key of the cache.
+	 * @param version
+	 *            is the current version of the index.
+	 * @return the results, or null if they are not cached or out of date.
+	 */
+	private synchronized ArrayList<SearchResult> get(String key, long version) {
+		Entry entry = protectedEntries.get(key);
+		if (entry == null) {
+			entry = probation.remove(key);
+			if (entry != null) {
+				probationBytes -= entry.bytes;
+				if (entry.version == version) {
+					protectedEntries.put(key, entry);
+					protectedBytes += entry.bytes;
+					demote();
+				}
+			}
+		} else if (entry.version != version) {
+			protectedEntries.remove(key);
+			protectedBytes -= entry.bytes;
+		}
+
+		if (entry == null || entry.version != version) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.results;
+	}
+
+	/**
+	 * Put new results into the probation part, and evict the least recently
+	 * used entries if the cache is too big.
+	 *
+	 * @param key
+	 *            is the key of the cache.
+	 * @param entry
+	 *            is the new entry.
+	 * @param time
+	 *            is the nanoseconds used for searching the results.
+	 */
+	private synchronized void put(String key, Entry entry, long time) {
+		loadTime += time;
+		if (entry.bytes > maxBytes) {
+			return;
+		}
+
+		Entry old = probation.remove(key);
+		if (old != null) {
+			probationBytes -= old.bytes;
+		}
+		old = protectedEntries.remove(key);
+		if (old != null) {
+			protectedBytes -= old.bytes;
+		}
+		probation.put(key, entry);
+		probationBytes += entry.bytes;
+
+		// the probation part is evicted first, so a popular entry is only
+		// evicted after everything else.
+		while (probationBytes + protectedBytes > maxBytes) {
+			LinkedHashMap<String, Entry> part = probation.isEmpty() ? protectedEntries
+					: probation;
+			Iterator<Map.Entry<String, Entry>> eldest = part.entrySet()
+					.iterator();
+			Entry evicted = eldest.next().getValue();
+			eldest.remove();
+			if (part == probation) {
+				probationBytes -= evicted.bytes;
+			} else {
+				protectedBytes -= evicted.bytes;
+			}
+			evictions++;
+		}
+	}
+
+	/**
+	 * @param time
+	 *            is the nanoseconds used for a search which was not cached.
+	 */
+	private synchronized void addLoadTime(long time) {
+		loadTime += time;
+	}
+
+	/**
+	 * Move the least recently used entries of the protected part back to the
+	 * probation part if the protected part is too big.
+	 */
+	private void demote() {
+		long limit = maxBytes * PROTECTED_PERCENT / 100;
+		Iterator<Map.Entry<String, Entry>> eldest = protectedEntries
+				.entrySet().iterator();
+		while (protectedBytes > limit && eldest.hasNext()) {
+			Map.Entry<String, Entry> entry = eldest.next();
+			eldest.remove();
+			protectedBytes -= entry.getValue().bytes;
+			probation.put(entry.getKey(), entry.getValue());
+			probationBytes += entry.getValue().bytes;
+		}
+	}
+
+	/**
+	 * @return the number of searches answered by the cache.
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of searches which were not in the cache.
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return the part of searches answered by the cache.
+	 */
+	public synchronized double getHitRatio() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return the number of entries evicted because the cache was full.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * @return the total nanoseconds used for searching the missed queries.
+	 */
+	public synchronized long getLoadTime() {
+		return loadTime;
+	}
+
+	/**
+	 * @return the number of cached entries.
+	 */
+	public synchronized int size() {
+		return probation.size() + protectedEntries.size();
+	}
+
+	// print the counters, used for the log.
+	public synchronized String toString() {
+		return String.format(
+				"hits %d, misses %d, hit ratio %.3f, evictions %d, "
+						+ "load time %.1f ms, entries %d, bytes %d", hits,
+				misses, getHitRatio(), evictions, loadTime / 1e6, size(),
+				probationBytes + protectedBytes);
+	}
+
+	/**
+	 * This class Entry is the cached results of one query.
+	 *
+	 */
+	private static class Entry {
+
+		/**
+		 * The sorted search results.
+		 */
+		private ArrayList<SearchResult> results;
+
+		/**
+		 * The version of the index when the results were searched.
+		 */
+		private long version;
+
+		/**
+		 * The estimated bytes of this entry.
+		 */
+		private long bytes;
+
+		/**
+		 * @param results
+		 *            is the sorted search results.
+		 * @param version
+		 *            is the version of the index.
+		 * @param bytes
+		 *            is the estimated bytes of this entry.
+		 */
+		public Entry(ArrayList<SearchResult> results, long version, long bytes) {
+			this.results = results;
+			this.version = version;
+			this.bytes = bytes;
+		}
+	}
+}
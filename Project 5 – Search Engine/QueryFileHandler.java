@@ -6,13 +6,16 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 
 /**
  * This class named QueryFileHandler is used for dealing with all query files
  * and pass the keywords to InvertedIndex, after get the search results, put
- * keywords and search results into resultMap.
+ * keywords and search results into resultList.
+ * 
+ * All the lines of a query file are searched at the same time by the threads
+ * of WorkQueue, only the number of lines being searched is limited, so a big
+ * query file uses all the threads. The searchQueryFile method writes the
+ * results while searching instead of keeping all of them in memory.
  * 
  * @author ANG ZHANG
  * 
@@ -20,13 +23,24 @@ import java.util.Iterator;
 public class QueryFileHandler {
 
 	/**
-	 * This HashMap named resultMap is used for storing keyword from the query
-	 * file and search them in the above TreeMap. The outer key is keyword and
-	 * the value is SearchResult List. The SearchResult has three elements, they
-	 * are file path, frequency of the keyword and the first position in the
-	 * text file.
+	 * The number of lines being searched for every thread of WorkQueue, so
+	 * the threads do not wait for the next line.
+	 */
+	private static final int LINES_PER_THREAD = 2;
+
+	/**
+	 * The number of lines which could be finished but not written for every
+	 * thread of WorkQueue, when the results are written while searching.
+	 */
+	private static final int WINDOW_PER_THREAD = 16;
+
+	/**
+	 * This resultList is used for storing the results of every line of the
+	 * query file, at the same index as the line in wordList. The SearchResult
+	 * has three elements, they are file path, frequency of the keyword and the
+	 * first position in the text file.
 	 */
-	private HashMap<String, ArrayList<SearchResult>> resultMap;
+	private ArrayList<ArrayList<SearchResult>> resultList;
 
 	/**
 	 * This InvertedIndex type resultStore is for storing word when get word
@@ -36,7 +50,31 @@ public class QueryFileHandler {
 	private InvertedIndex resultStore;
 
 	/**
-	 * This wordList is for record the order of keyword passed to every thread.
+	 * The cache of search results in front of resultStore, it is null if the
+	 * results are not cached.
+	 */
+	private QueryCache cache;
+
+	/**
+	 * The writer of the results while searching by searchQueryFile, it is
+	 * null if the results are kept in resultList.
+	 */
+	private SearchResultWriter writer;
+
+	/**
+	 * True if every line is a boolean query parsed by QueryParser, instead of
+	 * words where any of them could match.
+	 */
+	private boolean booleanMode;
+
+	/**
+	 * True if every word is matched exactly instead of as a prefix.
+	 */
+	private boolean exactMode;
+
+	/**
+	 * This wordList is for record the order of keyword passed to every thread,
+	 * every line of the query file has its own slot.
 	 */
 	private ArrayList<String> wordList;
 
@@ -68,7 +106,27 @@ public class QueryFileHandler {
 	 */
 	public QueryFileHandler(InvertedIndex resultStore, WorkQueue wQueue) {
 
-		resultMap = new HashMap<String, ArrayList<SearchResult>>();
+		this(resultStore, wQueue, null);
+	}
+
+	/**
+	 * The constructor of QueryFileHandler searching through a cache.
+	 * 
+	 * @param resultStore
+	 *            is the index to search.
+	 * @param wQueue
+	 *            is group of threads.
+	 * @param cache
+	 *            is the cache of search results in front of resultStore, or
+	 *            null if the results should not be cached.
+	 */
+	public QueryFileHandler(InvertedIndex resultStore, WorkQueue wQueue,
+			QueryCache cache) {
+
+		this.cache = cache;
+		booleanMode = false;
+		exactMode = false;
+		resultList = new ArrayList<ArrayList<SearchResult>>();
 		this.resultStore = resultStore;
 		this.queryWorkQueue = wQueue;
 		wordList = new ArrayList<String>();
@@ -76,6 +134,29 @@ public class QueryFileHandler {
 		pending = 0;
 	}
 
+	/**
+	 * Choose how the lines of the query file are searched.
+	 * 
+	 * @param booleanMode
+	 *            is true if every line is a boolean query with AND, OR, NOT,
+	 *            parentheses, phrases in quotes and NEAR/k.
+	 */
+	public void setBooleanMode(boolean booleanMode) {
+		this.booleanMode = booleanMode;
+	}
+
+	/**
+	 * Choose if the words of the query file are exact words. A word ending
+	 * with $ is always exact.
+	 * 
+	 * @param exactMode
+	 *            is true if every word only matches itself, instead of all the
+	 *            words starting with it.
+	 */
+	public void setExactMode(boolean exactMode) {
+		this.exactMode = exactMode;
+	}
+
 	/**
 	 * This shared method getPending is used for obtaining the current number of
 	 * running threads.
@@ -96,16 +177,33 @@ public class QueryFileHandler {
 	private synchronized void updatePending(int amount) {
 		pending += amount;
 
-		if (pending <= 0) {
-			notifyAll();
-		}
+		// the reader waits for free room as well as for the end.
+		notifyAll();
 
 	}
 
+	/**
+	 * Wait until there are at most limit lines being searched.
+	 * 
+	 * @param limit
+	 *            is the number of lines which could still be searched.
+	 */
+	private synchronized void waitPending(int limit) {
+		while (pending > limit) {
+			try {
+				wait();
+			} catch (InterruptedException ex) {
+
+			}
+		}
+	}
+
 	/**
 	 * This method readQueryFile is used for read the searching keywords from
 	 * the query file and pass the keywords to resultStore. After obtaining the
-	 * results, put the keywords and results into resultMap.
+	 * results, put the results into the slot of the line in resultList. The
+	 * lines are searched at the same time, at most LINES_PER_THREAD lines for
+	 * every thread, and this method returns after all of them are finished.
 	 * 
 	 * @param filePath
 	 *            the path from the command-line.
@@ -113,6 +211,46 @@ public class QueryFileHandler {
 	 */
 	public void readQueryFile(String filePath) throws IOException {
 
+		writer = null;
+		readLines(filePath);
+	}
+
+	/**
+	 * This method searchQueryFile is used for searching the query file and
+	 * writing the results at the same time. The results of a line are written
+	 * as soon as it and all the lines before it are finished, then they are
+	 * dropped, so a big query file does not need all the results in memory.
+	 * The output is the same as readQueryFile with printSearchResult.
+	 * 
+	 * @param filePath
+	 *            the path from the command-line.
+	 * @param outputPath
+	 *            is the path of the output file.
+	 * @throws IOException
+	 */
+	public void searchQueryFile(String filePath, String outputPath)
+			throws IOException {
+
+		writer = new SearchResultWriter(outputPath);
+		try {
+			readLines(filePath);
+		} finally {
+			// the lines already searched still use the writer.
+			waitPending(0);
+			writer.close();
+			writer = null;
+		}
+	}
+
+	/**
+	 * Read the lines of the query file and search them by the threads.
+	 * 
+	 * @param filePath
+	 *            the path from the command-line.
+	 * @throws IOException
+	 */
+	private void readLines(String filePath) throws IOException {
+
 		File file = new File(filePath);
 
 		if (!file.isFile() || !file.canRead()) {
@@ -124,31 +262,37 @@ public class QueryFileHandler {
 			reader = new BufferedReader(new InputStreamReader(fir, "utf-8"));
 
 			String sourceLine = "";
+			int maxPending = queryWorkQueue.size() * LINES_PER_THREAD;
+			int window = queryWorkQueue.size() * WINDOW_PER_THREAD;
+			int slot = 0;
 
 			while ((sourceLine = reader.readLine()) != null) {
 
-				// put every source line into wordList to record the input
-				// order.
-				wordList.add(sourceLine);
-
-				// call worker thread to search every keyword line.
-				queryWorkQueue.execute(new QueryWorker(sourceLine));
-
-				// We need to wait all of threads have finished the job.
-				while (getPending() > 0) {
-
-					synchronized (this) {
-						try {
-
-							wait();
-						} catch (InterruptedException ex) {
-
-						}
-					}
+				if (writer == null) {
+					// put every source line into wordList to record the input
+					// order, and give it an empty slot for the results.
+					searchResultLock.acquireWriteLock();
+					slot = wordList.size();
+					wordList.add(sourceLine);
+					resultList.add(null);
+					searchResultLock.releaseWriteLock();
+				} else {
+					// do not keep too many finished lines waiting for a slow
+					// line before them.
+					writer.waitForRoom(slot, window);
 				}
 
+				// do not read too far ahead of the threads.
+				waitPending(maxPending - 1);
+
+				// call worker thread to search every keyword line.
+				queryWorkQueue.execute(new QueryWorker(slot, sourceLine));
+				slot++;
 			}
 
+			// We need to wait all of threads have finished the job.
+			waitPending(0);
+
 		} catch (IOException exception) {
 
 			throw new IOException("Unable to search the word.", exception);
@@ -172,6 +316,11 @@ public class QueryFileHandler {
 	 */
 	private class QueryWorker implements Runnable {
 
+		/**
+		 * The index of the line in the query file.
+		 */
+		private int slot;
+
 		/**
 		 * One line keyword from query text file.
 		 */
@@ -180,11 +329,14 @@ public class QueryFileHandler {
 		/**
 		 * Constructor of class QueryWorker.
 		 * 
+		 * @param slot
+		 *            is the index of the line in the query file.
 		 * @param line
 		 *            keyword from query text file.
 		 */
-		public QueryWorker(String line) {
+		public QueryWorker(int slot, String line) {
 
+			this.slot = slot;
 			this.line = line;
 			// after running a thread, update the pending number by one.
 			updatePending(1);
@@ -193,40 +345,76 @@ public class QueryFileHandler {
 		// put former searching result method in run method.
 		@Override
 		public void run() {
+			ArrayList<SearchResult> results = null;
+			try {
+				results = search();
+			} finally {
+				if (writer == null) {
+					// Because here may have more than one thread will write
+					// data into resultList, we need to lock the shared
+					// object.
+					searchResultLock.acquireWriteLock();
+					// put the results into the slot of this line.
+					resultList.set(slot, results);
+					// After writing the data, releasing the lock.
+					searchResultLock.releaseWriteLock();
+				} else {
+					// the line must be given to the writer even if the
+					// search failed, otherwise the lines after it are never
+					// written.
+					writer.write(slot, line, results);
+				}
 
-			line = line.trim();
-
-			String[] searchArray = line.split("\\s+");
+				// after all the processing, decrease the number of thread
+				// even if the search failed, so the reader does not wait
+				// forever.
+				updatePending(-1);
+			}
+		}
 
-			for (int i = 0; i < searchArray.length; i++) {
-				searchArray[i] = searchArray[i].replaceAll(
-						"[^\\s && \\W ||  _  ]", "").toLowerCase();
+		/**
+		 * Search the line.
+		 * 
+		 * @return the results of the line.
+		 */
+		private ArrayList<SearchResult> search() {
 
+			if (booleanMode) {
+				return searchQuery();
 			}
 
+			// the words are normalized like the words of the documents, an
+			// exact word is looked up in the hash dictionary.
+			String[] searchArray = QueryParser.parseWords(line, exactMode);
+
 			// call InvertedIndex type resultStore's method searchResult to
 			// get one line's result then return them as
 			// a list.
-			ArrayList<SearchResult> resultList = resultStore
-					.searchResult(searchArray);
-
-			// Because here may have more than one thread will write data into
-			// resultMap, we need to lock the shared object.
-			searchResultLock.acquireWriteLock();
-			// put sourceLine which is keywords and resultList into
-			// resultMap.
-			resultMap.put(line, resultList);
-			// After writing the data, releasing the lock.
-			searchResultLock.releaseWriteLock();
-
-			// after all the processing, decrease the number of thread
-			updatePending(-1);
+			return cache == null ? resultStore.searchResult(searchArray)
+					: cache.searchResult(searchArray);
+		}
+
+		/**
+		 * Search the line as a boolean query.
+		 * 
+		 * @return the results of the line, empty if the query is not valid.
+		 */
+		private ArrayList<SearchResult> searchQuery() {
+			QueryNode query;
+			try {
+				query = QueryParser.parse(line, exactMode);
+			} catch (IllegalArgumentException ex) {
+				System.err.println("Error: " + ex.getMessage());
+				return new ArrayList<SearchResult>();
+			}
+			return cache == null ? resultStore.searchQuery(query, -1) : cache
+					.searchQuery(query, -1);
 		}
 
 	}
 
 	/**
-	 * Write resultMap based on the requirement of project to the text file
+	 * Write resultList based on the requirement of project to the text file
 	 * named "searchresults.txt"
 	 * 
 	 * @throws IOException
@@ -240,27 +428,12 @@ public class QueryFileHandler {
 		FileWriter fstream = new FileWriter("searchresults.txt");
 		BufferedWriter out = new BufferedWriter(fstream);
 		try {
-			for (String word : wordList) {
-
-				out.write(word + "\n");
+			for (int slot = 0; slot < wordList.size(); slot++) {
 
-				ArrayList<SearchResult> list = resultMap.get(word);
-
-				for (Iterator<SearchResult> i = list.iterator(); i.hasNext();) {
-					SearchResult sr = i.next();
-
-					if (sr != null) {
-						out.write(sr.toString());
-					}
-
-				}
-
-				out.write("\n");
-				// close the output stream
+				SearchResultWriter.writeBlock(out, wordList.get(slot),
+						resultList.get(slot));
 			}
 
-			// }
-
 		} catch (Exception e) {// Catch exception if any
 			System.err.println("Error: " + e.getMessage());
 		} finally {
@@ -0,0 +1,310 @@
+import java.util.ArrayList;
+
+/**
+ * This class QueryNode is one part of a parsed query, a word, a phrase, two
+ * parts near each other, or a group of parts joined by AND or OR. A node opens
+ * a DocCursor on an index, and the cursor gives the matching documents.
+ *
+ * Every word takes its PostingLists from the SearchBudget of the search. When
+ * the budget is used up, the words opened later get no lists, so a node
+ * matches only some of its documents and the results are partial.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public abstract class QueryNode {
+
+	/**
+	 * Open a cursor for this node.
+	 *
+	 * @param index
+	 *            is the index to search.
+	 * @param deleted
+	 *            is the deleted IDs read once for the whole query, so all
+	 *            its words see the same documents.
+	 * @param budget
+	 *            is the budget of the search, a list is only opened if it
+	 *            fits into it.
+	 * @return the cursor of the matching documents.
+	 */
+	public abstract DocCursor open(InvertedIndex index, long[] deleted,
+			SearchBudget budget);
+
+	/**
+	 * @return the query of this node, it is also used as the key of the
+	 *         cache.
+	 */
+	public abstract String toString();
+
+	/**
+	 * This class Term is a word of the query, every word starting with it is
+	 * matched like the searchResult method of InvertedIndex, or only the word
+	 * itself if it ends with EXACT_MARK.
+	 *
+	 */
+	public static class Term extends QueryNode {
+
+		/**
+		 * The normalized word.
+		 */
+		private String word;
+
+		/**
+		 * @param word
+		 *            is the normalized word.
+		 */
+		public Term(String word) {
+			this.word = word;
+		}
+
+		/**
+		 * @return the normalized word.
+		 */
+		public String getWord() {
+			return word;
+		}
+
+		@Override
+		public DocCursor open(InvertedIndex index, long[] deleted,
+				SearchBudget budget) {
+			ArrayList<PostingList> lists = new ArrayList<PostingList>();
+			index.getPostingLists(word, lists);
+
+			ArrayList<TermCursor> cursors = new ArrayList<TermCursor>();
+			for (PostingList list : lists) {
+				if (!budget.spend(list.size())) {
+					break;
+				}
+				cursors.add(new TermCursor(list, deleted));
+			}
+			if (cursors.size() == 1) {
+				return cursors.get(0);
+			}
+			return new UnionCursor(cursors);
+		}
+
+		@Override
+		public String toString() {
+			return word;
+		}
+	}
+
+	/**
+	 * This class Phrase is words which must appear one right after another.
+	 *
+	 */
+	public static class Phrase extends QueryNode {
+
+		/**
+		 * The words of the phrase, at least two.
+		 */
+		private ArrayList<Term> words;
+
+		/**
+		 * @param words
+		 *            is the words of the phrase, at least two.
+		 */
+		public Phrase(ArrayList<Term> words) {
+			this.words = words;
+		}
+
+		/**
+		 * @return the number of words.
+		 */
+		public int size() {
+			return words.size();
+		}
+
+		@Override
+		public DocCursor open(InvertedIndex index, long[] deleted,
+				SearchBudget budget) {
+			ArrayList<DocCursor> cursors = new ArrayList<DocCursor>();
+			for (Term word : words) {
+				cursors.add(word.open(index, deleted, budget));
+			}
+			return new PhraseCursor(cursors);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("\"");
+			for (int i = 0; i < words.size(); i++) {
+				if (i > 0) {
+					builder.append(' ');
+				}
+				builder.append(words.get(i));
+			}
+			return builder.append('"').toString();
+		}
+	}
+
+	/**
+	 * This class Near is two words or phrases with at most some words between
+	 * them, in any order.
+	 *
+	 */
+	public static class Near extends QueryNode {
+
+		/**
+		 * The two parts, each is a Term or a Phrase.
+		 */
+		private QueryNode left;
+		private QueryNode right;
+
+		/**
+		 * The most words allowed between the two parts.
+		 */
+		private int distance;
+
+		/**
+		 * @param left
+		 *            is the first part, a Term or a Phrase.
+		 * @param right
+		 *            is the second part, a Term or a Phrase.
+		 * @param distance
+		 *            is the most words allowed between the two parts.
+		 */
+		public Near(QueryNode left, QueryNode right, int distance) {
+			this.left = left;
+			this.right = right;
+			this.distance = distance;
+		}
+
+		/**
+		 * @param node
+		 *            is a Term or a Phrase.
+		 * @return the number of words of it.
+		 */
+		private static int getWidth(QueryNode node) {
+			return node instanceof Phrase ? ((Phrase) node).size() : 1;
+		}
+
+		@Override
+		public DocCursor open(InvertedIndex index, long[] deleted,
+				SearchBudget budget) {
+			return new NearCursor(left.open(index, deleted, budget),
+					getWidth(left), right.open(index, deleted, budget),
+					getWidth(right), distance);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " NEAR/" + distance + " " + right + ")";
+		}
+	}
+
+	/**
+	 * This class And is a group of parts which must all match, and parts
+	 * which must not match.
+	 *
+	 */
+	public static class And extends QueryNode {
+
+		/**
+		 * The parts which must match.
+		 */
+		private ArrayList<QueryNode> positives;
+
+		/**
+		 * The parts which must not match.
+		 */
+		private ArrayList<QueryNode> negatives;
+
+		/**
+		 * @param positives
+		 *            is the parts which must match, at least one.
+		 * @param negatives
+		 *            is the parts which must not match.
+		 */
+		public And(ArrayList<QueryNode> positives, ArrayList<QueryNode> negatives) {
+			this.positives = positives;
+			this.negatives = negatives;
+		}
+
+		@Override
+		public DocCursor open(InvertedIndex index, long[] deleted,
+				SearchBudget budget) {
+			// the parts which must not match are opened first. If the budget
+			// is used up by them, some documents would not be excluded, so
+			// nothing is matched instead of wrong documents.
+			ArrayList<DocCursor> excluded = new ArrayList<DocCursor>();
+			for (QueryNode node : negatives) {
+				excluded.add(node.open(index, deleted, budget));
+			}
+			if (budget.isTruncated()) {
+				return new UnionCursor(new ArrayList<DocCursor>());
+			}
+
+			ArrayList<DocCursor> cursors = new ArrayList<DocCursor>();
+			for (QueryNode node : positives) {
+				cursors.add(node.open(index, deleted, budget));
+			}
+			DocCursor cursor = cursors.size() == 1 ? cursors.get(0)
+					: new ConjunctionCursor(cursors);
+
+			if (!excluded.isEmpty()) {
+				cursor = new ExclusionCursor(cursor,
+						excluded.size() == 1 ? excluded.get(0)
+								: new UnionCursor(excluded));
+			}
+			return cursor;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("(");
+			for (int i = 0; i < positives.size(); i++) {
+				if (i > 0) {
+					builder.append(" AND ");
+				}
+				builder.append(positives.get(i));
+			}
+			for (QueryNode node : negatives) {
+				builder.append(" NOT ").append(node);
+			}
+			return builder.append(")").toString();
+		}
+	}
+
+	/**
+	 * This class Or is a group of parts where any of them could match.
+	 *
+	 */
+	public static class Or extends QueryNode {
+
+		/**
+		 * The parts of the group.
+		 */
+		private ArrayList<QueryNode> children;
+
+		/**
+		 * @param children
+		 *            is the parts of the group.
+		 */
+		public Or(ArrayList<QueryNode> children) {
+			this.children = children;
+		}
+
+		@Override
+		public DocCursor open(InvertedIndex index, long[] deleted,
+				SearchBudget budget) {
+			ArrayList<DocCursor> cursors = new ArrayList<DocCursor>();
+			for (QueryNode node : children) {
+				cursors.add(node.open(index, deleted, budget));
+			}
+			return new UnionCursor(cursors);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("(");
+			for (int i = 0; i < children.size(); i++) {
+				if (i > 0) {
+					builder.append(" OR ");
+				}
+				builder.append(children.get(i));
+			}
+			return builder.append(")").toString();
+		}
+	}
+}
@@ -0,0 +1,372 @@
+import java.util.ArrayList;
+
+/**
+ * This class QueryParser parses a boolean query into QueryNodes. The words
+ * are joined by AND, OR and NOT, and parts could be grouped by parentheses.
+ * NOT is stronger than AND, and AND is stronger than OR. Two parts without an
+ * operator between them are joined by AND. Words in quotes are a phrase, and
+ * two words or phrases joined by NEAR/k must have at most k words between
+ * them.
+ *
+ * <pre>
+ * query  := and (OR and)*
+ * and    := unit ([AND] unit)*
+ * unit   := [NOT] ( '(' query ')' | phrase [NEAR/k phrase] )
+ * phrase := word | '"' word+ '"'
+ * </pre>
+ *
+ * Every word is normalized like the words of the documents and matches all
+ * the words starting with it, a word ending with $ only matches itself. The
+ * operators must be upper case, so a lower case "and" is a normal word.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class QueryParser {
+
+	/**
+	 * The tokens of the query.
+	 */
+	private ArrayList<String> tokens;
+
+	/**
+	 * The index of the next token.
+	 */
+	private int next;
+
+	/**
+	 * The query to parse, used for the error message.
+	 */
+	private String query;
+
+	/**
+	 * True if every word is matched exactly.
+	 */
+	private boolean exact;
+
+	/**
+	 * The constructor of QueryParser.
+	 *
+	 * @param query
+	 *            is the query to parse.
+	 * @param exact
+	 *            is true if every word is matched exactly.
+	 */
+	private QueryParser(String query, boolean exact) {
+		this.query = query;
+		this.exact = exact;
+		tokens = new ArrayList<String>();
+		next = 0;
+
+		StringBuilder word = new StringBuilder();
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (c == '"') {
+				addWord(word);
+				int end = query.indexOf('"', i + 1);
+				if (end < 0) {
+					throw error("Missing \"");
+				}
+				addPhrase(query.substring(i + 1, end));
+				i = end;
+			} else if (Character.isWhitespace(c) || c == '(' || c == ')') {
+				addWord(word);
+				if (c == '(' || c == ')') {
+					tokens.add(String.valueOf(c));
+				}
+			} else {
+				word.append(c);
+			}
+		}
+		addWord(word);
+	}
+
+	/**
+	 * Add a word to the tokens, a word which is empty after removing the
+	 * symbols is dropped.
+	 *
+	 * @param word
+	 *            is the chars of the word, it is cleared.
+	 */
+	private void addWord(StringBuilder word) {
+		if (word.length() == 0) {
+			return;
+		}
+		String token = word.toString();
+		word.setLength(0);
+		if (isOperator(token)) {
+			tokens.add(token);
+		} else {
+			token = normalize(token, exact);
+			if (!token.isEmpty()) {
+				tokens.add(token);
+			}
+		}
+	}
+
+	/**
+	 * Add the words in quotes to the tokens as one token starting with a
+	 * quote, the normalized words are separated by spaces. A phrase of one
+	 * word is just a word.
+	 *
+	 * @param phrase
+	 *            is the chars between the quotes.
+	 */
+	private void addPhrase(String phrase) {
+		StringBuilder builder = new StringBuilder("\"");
+		int count = 0;
+		for (String word : phrase.split("\\s+")) {
+			word = normalize(word, exact);
+			if (!word.isEmpty()) {
+				if (count++ > 0) {
+					builder.append(' ');
+				}
+				builder.append(word);
+			}
+		}
+		if (count == 1) {
+			tokens.add(builder.substring(1));
+		} else if (count > 1) {
+			tokens.add(builder.toString());
+		}
+	}
+
+	/**
+	 * @param token
+	 *            is a token.
+	 * @return true if the token is AND, OR, NOT or NEAR/k.
+	 */
+	private static boolean isOperator(String token) {
+		return token.equals("AND") || token.equals("OR") || token.equals("NOT")
+				|| isNear(token);
+	}
+
+	/**
+	 * @param token
+	 *            is a token, or null.
+	 * @return true if the token is NEAR/k.
+	 */
+	private static boolean isNear(String token) {
+		return token != null && token.startsWith("NEAR/");
+	}
+
+	/**
+	 * Remove the symbols of a word and change it to lower case, in the same
+	 * way as the words of the documents.
+	 *
+	 * @param word
+	 *            is the word typed.
+	 * @return the normalized word.
+	 */
+	public static String normalize(String word) {
+		return FileReader.getWordWithoutSymbols(word);
+	}
+
+	/**
+	 * Split a line of words which are searched together, without any
+	 * operators. The words are split and normalized by a Tokenizer like the
+	 * words of the documents, and the symbols only are dropped.
+	 *
+	 * @param line
+	 *            is the line typed.
+	 * @param exact
+	 *            is true if the words should be exact even without the mark.
+	 * @return the normalized words, a word ending with EXACT_MARK is exact.
+	 */
+	public static String[] parseWords(String line, boolean exact) {
+		ArrayList<String> words = new ArrayList<String>();
+		Tokenizer tokenizer = Tokenizer.getLocal();
+		char mark = InvertedIndex.EXACT_MARK.charAt(0);
+		tokenizer.reset(line);
+		while (tokenizer.next()) {
+			String word = tokenizer.word();
+			// the mark is a symbol, so it is only seen in the raw word.
+			if (exact || line.charAt(tokenizer.getEnd() - 1) == mark) {
+				word += InvertedIndex.EXACT_MARK;
+			}
+			words.add(word);
+		}
+		return words.toArray(new String[words.size()]);
+	}
+
+	/**
+	 * Normalize a word and keep it exact if it ends with EXACT_MARK, the mark
+	 * is a symbol and would be removed by normalize.
+	 *
+	 * @param word
+	 *            is the word typed.
+	 * @param exact
+	 *            is true if the word should be exact even without the mark.
+	 * @return the normalized word ending with EXACT_MARK if it is exact, or an
+	 *         empty string if nothing is left.
+	 */
+	public static String normalize(String word, boolean exact) {
+		exact = exact || InvertedIndex.isExact(word);
+		word = normalize(word);
+		if (exact && !word.isEmpty()) {
+			word += InvertedIndex.EXACT_MARK;
+		}
+		return word;
+	}
+
+	/**
+	 * Parse a boolean query.
+	 *
+	 * @param query
+	 *            is the query to parse.
+	 * @return the root of the parsed query.
+	 * @throws IllegalArgumentException
+	 *             if the query is not valid.
+	 */
+	public static QueryNode parse(String query) {
+		return parse(query, false);
+	}
+
+	/**
+	 * Parse a boolean query.
+	 *
+	 * @param query
+	 *            is the query to parse.
+	 * @param exact
+	 *            is true if every word is matched exactly instead of as a
+	 *            prefix.
+	 * @return the root of the parsed query.
+	 * @throws IllegalArgumentException
+	 *             if the query is not valid.
+	 */
+	public static QueryNode parse(String query, boolean exact) {
+		QueryParser parser = new QueryParser(query, exact);
+		QueryNode root = parser.parseOr();
+		if (parser.next < parser.tokens.size()) {
+			throw parser.error("Unexpected " + parser.tokens.get(parser.next));
+		}
+		return root;
+	}
+
+	/**
+	 * @return the next token, or null at the end.
+	 */
+	private String peek() {
+		return next < tokens.size() ? tokens.get(next) : null;
+	}
+
+	/**
+	 * @param message
+	 *            is the reason.
+	 * @return the exception for the query.
+	 */
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " in query: " + query);
+	}
+
+	/**
+	 * @return the parts joined by OR.
+	 */
+	private QueryNode parseOr() {
+		ArrayList<QueryNode> children = new ArrayList<QueryNode>();
+		children.add(parseAnd());
+		while ("OR".equals(peek())) {
+			next++;
+			children.add(parseAnd());
+		}
+		return children.size() == 1 ? children.get(0) : new QueryNode.Or(
+				children);
+	}
+
+	/**
+	 * @return the parts joined by AND.
+	 */
+	private QueryNode parseAnd() {
+		ArrayList<QueryNode> positives = new ArrayList<QueryNode>();
+		ArrayList<QueryNode> negatives = new ArrayList<QueryNode>();
+
+		while (true) {
+			String token = peek();
+			if (token == null || token.equals("OR") || token.equals(")")) {
+				break;
+			}
+			if (token.equals("AND")) {
+				next++;
+				String after = peek();
+				if (after == null || after.equals("OR") || after.equals(")")
+						|| after.equals("AND")) {
+					throw error("Missing word after AND");
+				}
+				continue;
+			}
+			if (token.equals("NOT")) {
+				next++;
+				negatives.add(parsePrimary());
+			} else {
+				positives.add(parsePrimary());
+			}
+		}
+
+		if (positives.isEmpty()) {
+			throw error(negatives.isEmpty() ? "Missing words"
+					: "NOT needs a word which must match");
+		}
+		if (positives.size() == 1 && negatives.isEmpty()) {
+			return positives.get(0);
+		}
+		return new QueryNode.And(positives, negatives);
+	}
+
+	/**
+	 * @return a group in parentheses, or a word or phrase which could be
+	 *         joined with another one by NEAR.
+	 */
+	private QueryNode parsePrimary() {
+		if ("(".equals(peek())) {
+			next++;
+			QueryNode node = parseOr();
+			if (!")".equals(peek())) {
+				throw error("Missing )");
+			}
+			next++;
+			return node;
+		}
+
+		QueryNode left = parsePhrase();
+		if (!isNear(peek())) {
+			return left;
+		}
+		String near = tokens.get(next++);
+		int distance;
+		try {
+			distance = Integer.parseInt(near.substring("NEAR/".length()));
+		} catch (NumberFormatException ex) {
+			throw error("Bad distance of " + near);
+		}
+		if (distance < 0) {
+			throw error("Bad distance of " + near);
+		}
+		QueryNode right = parsePhrase();
+		if (isNear(peek())) {
+			throw error("NEAR could only join two words or phrases");
+		}
+		return new QueryNode.Near(left, right, distance);
+	}
+
+	/**
+	 * @return a word or a phrase.
+	 */
+	private QueryNode parsePhrase() {
+		String token = peek();
+		if (token == null) {
+			throw error("Missing word at the end");
+		}
+		next++;
+		if (token.equals("(") || token.equals(")") || isOperator(token)) {
+			throw error("Unexpected " + token);
+		}
+		if (token.startsWith("\"")) {
+			ArrayList<QueryNode.Term> words = new ArrayList<QueryNode.Term>();
+			for (String word : token.substring(1).split(" ")) {
+				words.add(new QueryNode.Term(word));
+			}
+			return new QueryNode.Phrase(words);
+		}
+		return new QueryNode.Term(token);
+	}
+}
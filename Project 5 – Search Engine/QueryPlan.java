@@ -0,0 +1,349 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class QueryPlan decides how the words of a search are evaluated. Before
+ * anything is scored, the number of words every prefix expands to and the
+ * number of documents in their PostingLists are counted. The words are
+ * searched from the cheapest, and the cheaper way of the two is chosen:
+ *
+ * term-at-a-time reads one PostingList after another and adds every document
+ * into a HashMap of results, which costs a hash lookup for every posting but
+ * nothing more for a prefix with many words.
+ *
+ * document-at-a-time walks all the lists together in order of document ID
+ * with a UnionCursor, so no HashMap is needed, but every posting costs a heap
+ * operation which grows with the number of lists.
+ *
+ * A short prefix kept by the PrefixIndex is already added up into one list,
+ * so it is always read term-at-a-time without expanding it.
+ *
+ * When only the best k results are needed and the words expand to a few
+ * lists, the lists could be walked by a WandCursor, which skips the documents
+ * that could not be in the best k. It is only chosen if it is estimated to be
+ * the cheapest, the longest list is mostly skipped but every other posting
+ * costs more than in a UnionCursor.
+ *
+ * After the search, the plan is written to the query log like EXPLAIN of a
+ * database. The lists and postings estimated are written next to the lists
+ * and postings actually read, counted by the SearchBudget, so a wrong
+ * estimate could be seen. A search stopped early by its SearchBudget is
+ * marked as truncated there.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class QueryPlan {
+
+	/** A {@link org.apache.log4j.Logger log4j} logger for the query log. */
+	private static Logger log = Logger.getLogger(QueryPlan.class);
+
+	/**
+	 * The estimated cost of adding one posting into the HashMap of results.
+	 */
+	private static final double HASH_COST = 4;
+
+	/**
+	 * The estimated cost of opening a cursor on one PostingList.
+	 */
+	private static final double OPEN_COST = 8;
+
+	/**
+	 * The most lists walked by a WandCursor, with more lists finding the
+	 * next document costs too much for every skip.
+	 */
+	private static final int MAX_PRUNED_LISTS = 32;
+
+	/**
+	 * The estimated cost of a posting walked by a WandCursor compared with a
+	 * UnionCursor, for finding the pivot and checking the blocks.
+	 */
+	private static final double PIVOT_COST = 2;
+
+	/**
+	 * The words in the order they are searched, the cheapest first.
+	 */
+	private String[] words;
+
+	/**
+	 * The number of words every search word expands to, and the number of
+	 * postings of them, in the order of words.
+	 */
+	private int[] terms;
+	private long[] postings;
+
+	/**
+	 * True for the words read from the PrefixIndex, in the order of words.
+	 */
+	private boolean[] precomputed;
+
+	/**
+	 * True if any word is read from the PrefixIndex.
+	 */
+	private boolean hasPrecomputed;
+
+	/**
+	 * True if the words are searched document-at-a-time.
+	 */
+	private boolean documentAtATime;
+
+	/**
+	 * The number of results needed, or -1 for all of them.
+	 */
+	private int k;
+
+	/**
+	 * True if the best k results are searched by a WandCursor.
+	 */
+	private boolean pruned;
+
+	/**
+	 * The estimated costs of the two ways.
+	 */
+	private double termCost;
+	private double documentCost;
+
+	/**
+	 * The estimated cost of a WandCursor, or 0 if it could not be used.
+	 */
+	private double prunedCost;
+
+	/**
+	 * The number of documents found, and the nanoseconds used for searching.
+	 */
+	private int resultCount;
+	private long time;
+
+	/**
+	 * The number of lists and postings actually read by the search.
+	 */
+	private int listsRead;
+	private long postingsRead;
+
+	/**
+	 * The limit which stopped the search early, or null if it is complete.
+	 */
+	private String truncated;
+
+	/**
+	 * The constructor of QueryPlan.
+	 *
+	 * @param keyWords
+	 *            is the words to search.
+	 * @param counts
+	 *            is the number of expanded words and postings of every search
+	 *            word, counts[i][0] and counts[i][1] for keyWords[i].
+	 * @param precomputed
+	 *            is true for the words kept by the PrefixIndex, their counts
+	 *            are 1 list and its number of entries.
+	 * @param cursorCost
+	 *            is the cost of reading one posting through a cursor, it is
+	 *            bigger if the lists must be copied before reading.
+	 * @param k
+	 *            is the number of results needed, or -1 for all of them.
+	 */
+	public QueryPlan(String[] keyWords, final long[][] counts,
+			boolean[] precomputed, double cursorCost, int k) {
+		// sort the indexes of words by their postings.
+		Integer[] order = new Integer[keyWords.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long x = counts[a][1];
+				long y = counts[b][1];
+				return x < y ? -1 : x == y ? 0 : 1;
+			}
+		});
+
+		words = new String[keyWords.length];
+		terms = new int[keyWords.length];
+		postings = new long[keyWords.length];
+		this.precomputed = new boolean[keyWords.length];
+		hasPrecomputed = false;
+		long lists = 0;
+		long total = 0;
+		// the average list of the most common word is the longest one.
+		double longest = 0;
+		for (int i = 0; i < order.length; i++) {
+			words[i] = keyWords[order[i]];
+			terms[i] = (int) counts[order[i]][0];
+			postings[i] = counts[order[i]][1];
+			this.precomputed[i] = precomputed[order[i]];
+			hasPrecomputed |= this.precomputed[i];
+			lists += terms[i];
+			total += postings[i];
+			if (terms[i] > 0) {
+				longest = Math.max(longest, (double) postings[i] / terms[i]);
+			}
+		}
+
+		termCost = HASH_COST * total;
+		// a heap of n lists costs about log2(n) for every posting.
+		double heapCost = lists > 1 ? Math.log(lists) / Math.log(2) : 0;
+		documentCost = cursorCost * (1 + heapCost) * total + OPEN_COST * lists;
+		// the lists of the PrefixIndex have no positions for a cursor.
+		documentAtATime = !hasPrecomputed && documentCost < termCost;
+		this.k = k;
+		if (k >= 0 && !hasPrecomputed && lists > 1
+				&& lists <= MAX_PRUNED_LISTS) {
+			prunedCost = PIVOT_COST * cursorCost * (1 + heapCost)
+					* (total - longest) + OPEN_COST * lists;
+		}
+		pruned = prunedCost > 0
+				&& prunedCost < Math.min(termCost, documentCost);
+	}
+
+	/**
+	 * @return the words in the order they should be searched.
+	 */
+	public String[] getWords() {
+		return words;
+	}
+
+	/**
+	 * @return true if the words should be searched document-at-a-time.
+	 */
+	public boolean isDocumentAtATime() {
+		return documentAtATime;
+	}
+
+	/**
+	 * @return true if the best k results should be searched by a WandCursor.
+	 */
+	public boolean isPruned() {
+		return pruned;
+	}
+
+	/**
+	 * @return the number of results needed, or -1 for all of them.
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @return the estimated cost of the chosen way.
+	 */
+	public double getEstimatedCost() {
+		if (pruned) {
+			return prunedCost;
+		}
+		return documentAtATime ? documentCost : termCost;
+	}
+
+	/**
+	 * Record the actual cost of the search and write the plan to the query
+	 * log. A search stopped by its budget is always written.
+	 *
+	 * @param resultCount
+	 *            is the number of documents found.
+	 * @param time
+	 *            is the nanoseconds used for searching.
+	 * @param budget
+	 *            is the budget of the search, it counted the lists and
+	 *            postings read.
+	 */
+	public void finish(int resultCount, long time, SearchBudget budget) {
+		this.resultCount = resultCount;
+		this.time = time;
+		listsRead = budget.getTerms();
+		postingsRead = budget.getPostings();
+		truncated = budget.getReason();
+		if (truncated != null) {
+			log.info(this);
+		} else {
+			log.debug(this);
+		}
+	}
+
+	/**
+	 * Write a boolean query to the query log. It is not planned, its cursors
+	 * are opened as the query is written, so only the actual cost is known.
+	 * A query stopped by its budget is always written.
+	 *
+	 * @param query
+	 *            is the parsed query.
+	 * @param resultCount
+	 *            is the number of documents found.
+	 * @param time
+	 *            is the nanoseconds used for searching.
+	 * @param budget
+	 *            is the budget of the search, it counted the lists and
+	 *            postings read.
+	 */
+	public static void explain(QueryNode query, int resultCount, long time,
+			SearchBudget budget) {
+		StringBuilder builder = new StringBuilder("EXPLAIN ").append(query);
+		builder.append(String.format(
+				": cursors, read %d lists %d postings, %d documents in %.3f ms",
+				budget.getTerms(), budget.getPostings(), resultCount,
+				time / 1e6));
+		if (budget.isTruncated()) {
+			builder.append(", truncated after ").append(budget.getReason());
+			log.info(builder);
+		} else {
+			log.debug(builder);
+		}
+	}
+
+	/**
+	 * @return true if the search was stopped early by its budget.
+	 */
+	public boolean isTruncated() {
+		return truncated != null;
+	}
+
+	// print the plan like EXPLAIN, used for the query log.
+	public String toString() {
+		StringBuilder builder = new StringBuilder("EXPLAIN");
+		long lists = 0;
+		long total = 0;
+		for (int i = 0; i < words.length; i++) {
+			lists += terms[i];
+			total += postings[i];
+			builder.append(i == 0 ? " " : ", ").append('"').append(words[i])
+					.append("\" (");
+			if (precomputed[i]) {
+				builder.append("precomputed, ");
+			} else {
+				builder.append(terms[i]).append(
+						terms[i] == 1 ? " word, " : " words, ");
+			}
+			builder.append(postings[i]).append(" postings)");
+		}
+		String chosen = documentAtATime ? "document-at-a-time"
+				: "term-at-a-time";
+		String other;
+		if (pruned) {
+			chosen = "WAND top " + k;
+			other = String.format(
+					"term-at-a-time %.0f, document-at-a-time %.0f", termCost,
+					documentCost);
+		} else if (prunedCost > 0) {
+			other = String.format("%s %.0f, WAND %.0f",
+					documentAtATime ? "term-at-a-time" : "document-at-a-time",
+					documentAtATime ? termCost : documentCost, prunedCost);
+		} else if (documentAtATime) {
+			other = String.format("term-at-a-time %.0f", termCost);
+		} else if (hasPrecomputed) {
+			other = "document-at-a-time is not possible for precomputed lists";
+		} else {
+			other = String.format("document-at-a-time %.0f", documentCost);
+		}
+		builder.append(String.format(": %s, estimated cost %.0f (%s)", chosen,
+				getEstimatedCost(), other));
+		builder.append(String.format(
+				", estimated %d lists %d postings, read %d lists %d postings",
+				lists, total, listsRead, postingsRead));
+		builder.append(String.format(", %d documents in %.3f ms",
+				resultCount, time / 1e6));
+		if (truncated != null) {
+			builder.append(", truncated after ").append(truncated);
+		}
+		return builder.toString();
+	}
+}
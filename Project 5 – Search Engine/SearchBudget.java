@@ -0,0 +1,151 @@
+/**
+ * This class SearchBudget limits the work of one search. A short prefix like
+ * "a" could expand to a big part of all the words, which keeps a search
+ * thread busy and holds the read lock of the index so long that indexing has
+ * to wait. The budget limits the number of words expanded, the number of
+ * postings read and the time used.
+ *
+ * A PostingList is only read if it fits into the budget. When any limit is
+ * hit, the search stops and returns the results found so far, and the budget
+ * remembers why it stopped, so the results could be marked as partial. The
+ * words are searched from the cheapest by the QueryPlan, so the rare words
+ * are always in the partial results.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class SearchBudget {
+
+	/**
+	 * The clock is only read after this much work, a word and a posting are
+	 * both one unit of work.
+	 */
+	private static final long CLOCK_INTERVAL = 1024;
+
+	/**
+	 * The most words expanded, the most postings read and the most
+	 * milliseconds of the search, 0 means no limit.
+	 */
+	private int maxTerms;
+	private long maxPostings;
+	private long timeout;
+
+	/**
+	 * The System.nanoTime when the time is over, only used if timeout is set.
+	 */
+	private long deadline;
+
+	/**
+	 * The words expanded and the postings read so far.
+	 */
+	private int terms;
+	private long postings;
+
+	/**
+	 * The work done so far, and the work when the clock is read next.
+	 */
+	private long work;
+	private long nextClock;
+
+	/**
+	 * The limit hit by the search, or null if the search is complete.
+	 */
+	private String reason;
+
+	/**
+	 * The constructor of SearchBudget, the time starts now.
+	 *
+	 * @param maxTerms
+	 *            is the most words expanded, 0 for no limit.
+	 * @param maxPostings
+	 *            is the most postings read, 0 for no limit.
+	 * @param timeout
+	 *            is the most milliseconds used, 0 for no limit.
+	 */
+	public SearchBudget(int maxTerms, long maxPostings, long timeout) {
+		this.maxTerms = maxTerms;
+		this.maxPostings = maxPostings;
+		this.timeout = timeout;
+		deadline = System.nanoTime() + timeout * 1000000;
+		nextClock = CLOCK_INTERVAL;
+	}
+
+	/**
+	 * Take one word and its postings from the budget before reading its
+	 * PostingList.
+	 *
+	 * @param size
+	 *            is the number of postings of the word.
+	 * @return true if the list could be read, false if the search must stop.
+	 */
+	public boolean spend(long size) {
+		if (reason != null) {
+			return false;
+		}
+		if (maxTerms > 0 && terms + 1 > maxTerms) {
+			reason = "more than " + maxTerms + " words";
+			return false;
+		}
+		if (maxPostings > 0 && postings + size > maxPostings) {
+			reason = "more than " + maxPostings + " postings";
+			return false;
+		}
+		if (!tick(1 + size)) {
+			return false;
+		}
+		terms++;
+		postings += size;
+		return true;
+	}
+
+	/**
+	 * Count some work which is not a new word, like a document found by a
+	 * cursor, and read the clock from time to time.
+	 *
+	 * @param units
+	 *            is the work done.
+	 * @return true if the search could go on, false if the time is over.
+	 */
+	public boolean tick(long units) {
+		if (reason != null) {
+			return false;
+		}
+		work += units;
+		if (timeout > 0 && work >= nextClock) {
+			nextClock = work + CLOCK_INTERVAL;
+			if (System.nanoTime() - deadline > 0) {
+				reason = "more than " + timeout + " ms";
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if a limit was hit and the results are partial.
+	 */
+	public boolean isTruncated() {
+		return reason != null;
+	}
+
+	/**
+	 * @return the limit hit, or null if the results are complete.
+	 */
+	public String getReason() {
+		return reason;
+	}
+
+	/**
+	 * @return the number of words expanded.
+	 */
+	public int getTerms() {
+		return terms;
+	}
+
+	/**
+	 * @return the number of postings read.
+	 */
+	public long getPostings() {
+		return postings;
+	}
+}
@@ -1,6 +1,9 @@
 /**
- * This class SearchResult is using for storing the path, frequency and the
- * first position of keywords.
+ * This class SearchResult is using for storing the document, frequency and the
+ * first position of keywords. The document is kept as an int document ID, the
+ * path is only looked up from the DocumentTable when it is printed or two
+ * results tie, and then it is kept, so sorting never takes the lock of the
+ * table again for the same result.
  * 
  * @author ANG ZHANG
  * 
@@ -9,9 +12,14 @@
 public class SearchResult implements Comparable<SearchResult> {
 
 	/**
-	 * path of keywords
+	 * the table used for finding the path of document
 	 */
-	public String path;
+	private DocumentTable documents;
+
+	/**
+	 * document ID of keywords
+	 */
+	private int docId;
 
 	/**
 	 * frequency of keyword
@@ -23,19 +31,27 @@ public class SearchResult implements Comparable<SearchResult> {
 	 */
 	private int pos;
 
+	/**
+	 * the path of document, or null until it is looked up
+	 */
+	private String path;
+
 	/**
 	 * The constructor of class
 	 * 
-	 * @param path
-	 *            path of keywords
+	 * @param documents
+	 *            the table used for finding the path of document
+	 * @param docId
+	 *            document ID of keywords
 	 * @param freq
 	 *            frequency of keyword
 	 * @param pos
 	 *            the first position of keyword
 	 */
-	public SearchResult(String path, int freq, int pos) {
+	public SearchResult(DocumentTable documents, int docId, int freq, int pos) {
 
-		this.path = path;
+		this.documents = documents;
+		this.docId = docId;
 		this.freq = freq;
 		this.pos = pos;
 
@@ -50,13 +66,41 @@ public class SearchResult implements Comparable<SearchResult> {
 			if (this.pos < other.pos)
 				return -1;
 			else if (this.pos == other.pos)
-				return path.compareTo(other.path);
+				return getPath().compareTo(other.getPath());
 			else
 				return 1;
 		} else
 			return -1;
 	}
 
+	/**
+	 * @return the document ID of keywords
+	 */
+	public int getDocId() {
+		return docId;
+	}
+
+	/**
+	 * @return the frequency of keywords
+	 */
+	public int getFrequency() {
+		return freq;
+	}
+
+	/**
+	 * @return the path of keywords
+	 */
+	public String getPath() {
+		// a String is immutable, so another thread reading the field sees
+		// either null or the whole path.
+		String result = path;
+		if (result == null) {
+			result = documents.getDocument(docId);
+			path = result;
+		}
+		return result;
+	}
+
 	/**
 	 * When get the new info of keyword, call this method to update the
 	 * attributes.
@@ -76,7 +120,7 @@ public class SearchResult implements Comparable<SearchResult> {
 	// rewrite the toString method to easy to output the result based on the
 	// requirement.
 	public String toString() {
-		return "\"" + this.path + "\"" + ", " + this.freq + ", " + this.pos
+		return "\"" + getPath() + "\"" + ", " + this.freq + ", " + this.pos
 				+ "\n";
 	}
 }
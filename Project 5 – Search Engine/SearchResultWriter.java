@@ -0,0 +1,179 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class SearchResultWriter writes the results of a query file while the
+ * lines are still being searched. The lines are finished in any order by the
+ * threads, so the finished lines wait in a reorder buffer, and every line is
+ * written as soon as it and all the lines before it are finished. The results
+ * are dropped after they are written, so only the lines in the window between
+ * the first unwritten line and the last read line are kept in memory.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class SearchResultWriter {
+
+	/**
+	 * The output file.
+	 */
+	private BufferedWriter out;
+
+	/**
+	 * The finished lines which could not be written yet, by their index in
+	 * the query file.
+	 */
+	private HashMap<Integer, Block> buffer;
+
+	/**
+	 * The index of the next line to write.
+	 */
+	private int next;
+
+	/**
+	 * The first error of writing, it is thrown by close.
+	 */
+	private IOException error;
+
+	/**
+	 * The constructor of SearchResultWriter.
+	 *
+	 * @param path
+	 *            is the path of the output file.
+	 * @throws IOException
+	 */
+	public SearchResultWriter(String path) throws IOException {
+		out = new BufferedWriter(new FileWriter(path));
+		buffer = new HashMap<Integer, Block>();
+		next = 0;
+		error = null;
+	}
+
+	/**
+	 * Give the results of one line, the line and all the finished lines after
+	 * it are written if all the lines before it are written.
+	 *
+	 * @param slot
+	 *            is the index of the line in the query file.
+	 * @param line
+	 *            is the line of the query file.
+	 * @param results
+	 *            is the results of the line.
+	 */
+	public synchronized void write(int slot, String line,
+			ArrayList<SearchResult> results) {
+		buffer.put(slot, new Block(line, results));
+
+		Block block;
+		while ((block = buffer.remove(next)) != null) {
+			if (error == null) {
+				try {
+					writeBlock(out, block.line, block.results);
+				} catch (IOException ex) {
+					error = ex;
+				}
+			}
+			next++;
+		}
+		// the reader may wait for room in the window.
+		notifyAll();
+	}
+
+	/**
+	 * Wait until the line is in the window, so at most window lines are kept
+	 * in memory.
+	 *
+	 * @param slot
+	 *            is the index of the line to read next.
+	 * @param window
+	 *            is the number of lines which could be unwritten.
+	 */
+	public synchronized void waitForRoom(int slot, int window) {
+		while (slot - next >= window) {
+			try {
+				wait();
+			} catch (InterruptedException ex) {
+
+			}
+		}
+	}
+
+	/**
+	 * Close the output file, all the lines must be written before.
+	 *
+	 * @throws IOException
+	 *             if some lines could not be written.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			out.close();
+		} catch (IOException ex) {
+			if (error == null) {
+				error = ex;
+			}
+		}
+		if (!buffer.isEmpty()) {
+			System.err.println("Error: " + buffer.size()
+					+ " search results were not written.");
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Write the results of one line in the format of searchresults.txt.
+	 *
+	 * @param out
+	 *            is the output.
+	 * @param line
+	 *            is the line of the query file.
+	 * @param results
+	 *            is the results of the line, or null if the search failed.
+	 * @throws IOException
+	 */
+	public static void writeBlock(Writer out, String line,
+			ArrayList<SearchResult> results) throws IOException {
+		out.write(line + "\n");
+		if (results != null) {
+			for (SearchResult sr : results) {
+				if (sr != null) {
+					out.write(sr.toString());
+				}
+			}
+		}
+		out.write("\n");
+	}
+
+	/**
+	 * This class Block is one finished line waiting to be written.
+	 *
+	 */
+	private static class Block {
+
+		/**
+		 * The line of the query file.
+		 */
+		private String line;
+
+		/**
+		 * The results of the line.
+		 */
+		private ArrayList<SearchResult> results;
+
+		/**
+		 * @param line
+		 *            is the line of the query file.
+		 * @param results
+		 *            is the results of the line.
+		 */
+		public Block(String line, ArrayList<SearchResult> results) {
+			this.line = line;
+			this.results = results;
+		}
+	}
+}
@@ -8,6 +8,13 @@ import javax.servlet.http.HttpServletResponse;
 
 
 public class SearchServlet extends LoginBaseServlet{
+
+	/**
+	 * The number of results shown for one search, only the best ones are
+	 * kept while searching.
+	 */
+	private static final int RESULTS_PER_PAGE = 10;
+
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) {
 		prepareResponse("Search Engine", response);
@@ -61,16 +68,45 @@ public class SearchServlet extends LoginBaseServlet{
 		String pass = request.getParameter("pass");
 		Status status = db.authenticateUser(user, pass);
 		String searchword = request.getParameter("q");
-		String[] words = searchword.split(" ");
-		ArrayList<SearchResult> arrayList = Driver.i.searchResult(words);
+		// mode=boolean searches the words joined by AND, OR and NOT, phrases in
+		// quotes and NEAR/k. mode=exact only matches the words themselves,
+		// without the words starting with them.
+		String mode = request.getParameter("mode");
+		// the limits of the index stop a search of a very short prefix early,
+		// then only the results found so far are shown.
+		SearchBudget budget = Driver.cache.getIndex().newBudget();
 		
 		PrintWriter out;
 		try {
 			out = response.getWriter();
+
+			ArrayList<SearchResult> arrayList;
+			if ("boolean".equals(mode)) {
+				try {
+					arrayList = Driver.cache.searchQuery(
+							QueryParser.parse(searchword), RESULTS_PER_PAGE,
+							budget);
+				} catch (IllegalArgumentException ex) {
+					out.println("Invalid query.");
+					return;
+				}
+			} else {
+				String[] words = QueryParser.parseWords(searchword,
+						"exact".equals(mode));
+				arrayList = Driver.cache.searchResult(words, RESULTS_PER_PAGE,
+						budget);
+			}
+			log.debug("Query cache: " + Driver.cache);
+			if (budget.isTruncated()) {
+				log.info("Partial results for \"" + searchword + "\": "
+						+ budget.getReason());
+				out.println("The search was stopped after "
+						+ budget.getReason() + ", the results are partial.");
+			}
 			//out.println("<ul>");
 			
 			for (SearchResult srResult : arrayList) {
-				out.println( srResult.path );
+				out.println( srResult.getPath() );
 			}
 			//out.println("</ul>");
 
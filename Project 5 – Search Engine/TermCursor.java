@@ -0,0 +1,249 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This class TermCursor walks through the documents of one PostingList.
+ * Skipping to a document uses galloping search, the step doubles until it
+ * passes the target and then a binary search finds it, so skipping over many
+ * documents of a common word only reads a few of them.
+ *
+ * The deleted documents of the DocumentTable are skipped, the cursor never
+ * stops on them.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class TermCursor extends DocCursor {
+
+	/**
+	 * The list to walk through.
+	 */
+	private PostingList list;
+
+	/**
+	 * The indexes of the documents in increasing order of document ID, or
+	 * null if the list is already sorted.
+	 */
+	private int[] order;
+
+	/**
+	 * The index of current document in the order.
+	 */
+	private int index;
+
+	/**
+	 * The bits of the deleted document IDs, or null if none is deleted.
+	 */
+	private long[] deleted;
+
+	/**
+	 * The reader of the positions, it is reset for current document only when
+	 * the first position is asked for.
+	 */
+	private PositionReader reader;
+
+	/**
+	 * The index of the document which the reader is reset for, or -1.
+	 */
+	private int readerIndex;
+
+	/**
+	 * The last document ID and the biggest frequency of every block of the
+	 * list, computed only when they are asked for.
+	 */
+	private int[] blocks;
+
+	/**
+	 * The block of the last target of blockMaxFrequency.
+	 */
+	private int block;
+
+	/**
+	 * The constructor of TermCursor.
+	 *
+	 * @param list
+	 *            is the list to walk through, it must not be changed while
+	 *            walking.
+	 */
+	public TermCursor(final PostingList list) {
+		this(list, null);
+	}
+
+	/**
+	 * The constructor of TermCursor which skips the deleted documents.
+	 *
+	 * @param list
+	 *            is the list to walk through, it must not be changed while
+	 *            walking.
+	 * @param deleted
+	 *            is the bits of the deleted document IDs from the
+	 *            DocumentTable, or null if none is deleted.
+	 */
+	public TermCursor(final PostingList list, long[] deleted) {
+		this.list = list;
+		this.deleted = deleted;
+		this.index = -1;
+		this.reader = new PositionReader();
+		this.readerIndex = -1;
+		if (!list.isSorted()) {
+			// only the lists which are still being built are not sorted.
+			Integer[] sorted = new Integer[list.size()];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = i;
+			}
+			Arrays.sort(sorted, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					int x = list.getDocId(a);
+					int y = list.getDocId(b);
+					return x < y ? -1 : x == y ? 0 : 1;
+				}
+			});
+			order = new int[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				order[i] = sorted[i];
+			}
+		}
+	}
+
+	/**
+	 * @param i
+	 *            is the index in the order.
+	 * @return the index in the list.
+	 */
+	private int getIndex(int i) {
+		return order == null ? i : order[i];
+	}
+
+	/**
+	 * @param i
+	 *            is the index in the order.
+	 * @return the document ID.
+	 */
+	private int getDocId(int i) {
+		return list.getDocId(getIndex(i));
+	}
+
+	@Override
+	public int docId() {
+		if (index < 0) {
+			return -1;
+		}
+		return index < list.size() ? getDocId(index) : NO_MORE_DOCS;
+	}
+
+	@Override
+	public int nextDoc() {
+		if (index < list.size()) {
+			index++;
+		}
+		return skipDeleted();
+	}
+
+	/**
+	 * Move from the current document to the first one not deleted.
+	 *
+	 * @return the document ID, or NO_MORE_DOCS.
+	 */
+	private int skipDeleted() {
+		if (deleted != null) {
+			int size = list.size();
+			while (index < size
+					&& DocumentTable.isDeleted(deleted, getDocId(index))) {
+				index++;
+			}
+		}
+		return docId();
+	}
+
+	@Override
+	public int advance(int target) {
+		int size = list.size();
+		int low = index + 1;
+		if (low >= size || getDocId(low) >= target) {
+			index = Math.min(low, size);
+			return skipDeleted();
+		}
+		// getDocId(low) < target, double the step until passing the target.
+		int step = 1;
+		int high = low + step;
+		while (high < size && getDocId(high) < target) {
+			low = high;
+			step *= 2;
+			high = low + step;
+		}
+		if (high > size) {
+			high = size;
+		}
+		// getDocId(low) < target <= getDocId(high), find the first one.
+		while (low + 1 < high) {
+			int mid = (low + high) >>> 1;
+			if (getDocId(mid) < target) {
+				low = mid;
+			} else {
+				high = mid;
+			}
+		}
+		index = high;
+		return skipDeleted();
+	}
+
+	@Override
+	public int frequency() {
+		return list.getFrequency(getIndex(index));
+	}
+
+	@Override
+	public int firstPosition() {
+		return list.getFirstPosition(getIndex(index));
+	}
+
+	@Override
+	public long cost() {
+		return list.size();
+	}
+
+	/**
+	 * @return the biggest frequency of one document of the list, no document
+	 *         gets more from this word.
+	 */
+	public int maxFrequency() {
+		return list.getMaxFrequency();
+	}
+
+	/**
+	 * Find the block of the first document not less than target without
+	 * moving the cursor. The targets must not decrease.
+	 *
+	 * @param target
+	 *            is a document ID.
+	 * @return the biggest frequency in the block, or 0 if no document of the
+	 *         list is at or after target.
+	 */
+	public int blockMaxFrequency(int target) {
+		if (blocks == null) {
+			blocks = order == null ? list.getBlockMaxima() : list
+					.computeBlockMaxima(order);
+		}
+		while (2 * block < blocks.length && blocks[2 * block] < target) {
+			block++;
+		}
+		return 2 * block < blocks.length ? blocks[2 * block + 1] : 0;
+	}
+
+	/**
+	 * @return the last document ID of the block found by the last
+	 *         blockMaxFrequency, or NO_MORE_DOCS after the last block.
+	 */
+	public int blockLastDoc() {
+		return 2 * block < blocks.length ? blocks[2 * block] : NO_MORE_DOCS;
+	}
+
+	@Override
+	public int nextPosition() {
+		if (readerIndex != index) {
+			list.getPositions(getIndex(index), reader);
+			readerIndex = index;
+		}
+		return reader.hasNext() ? reader.next() : NO_MORE_POSITIONS;
+	}
+}
@@ -0,0 +1,292 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * This class TermTrie is a packed trie of sorted words. The nodes are kept in
+ * three arrays in pre-order, so the words under one node are always a range of
+ * word indexes, and all the words starting with a prefix are found by walking
+ * down the prefix once, instead of searching the tree for every word.
+ *
+ * Every node only takes a char and two ints, there is no String or node
+ * object for every word.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class TermTrie {
+
+	/**
+	 * The last char of the word path of every node, the root has no label.
+	 */
+	private char[] labels;
+
+	/**
+	 * The node after the subtree of every node in pre-order, which is the
+	 * next sibling of the node if it has one.
+	 */
+	private int[] ends;
+
+	/**
+	 * The number of words before every node in pre-order. It has one more
+	 * element than the nodes, so the words under node n are from ranks[n] to
+	 * ranks[ends[n]], and node n is the end of a word if ranks[n + 1] is
+	 * bigger than ranks[n].
+	 */
+	private int[] ranks;
+
+	/**
+	 * The constructor of TermTrie.
+	 *
+	 * @param terms
+	 *            is the words in sorted order without duplicates.
+	 */
+	public TermTrie(String[] terms) {
+		int capacity = 1;
+		for (String term : terms) {
+			capacity += term.length();
+		}
+		labels = new char[capacity];
+		ends = new int[capacity];
+		ranks = new int[capacity + 1];
+
+		// the nodes of the path of current word, path[0] is the root.
+		int[] path = new int[16];
+		int depth = 0;
+		int count = 1;
+		String previous = "";
+
+		for (String term : terms) {
+			int common = 0;
+			while (common < previous.length() && common < term.length()
+					&& previous.charAt(common) == term.charAt(common)) {
+				common++;
+			}
+			// the nodes deeper than the common prefix are finished.
+			while (depth > common) {
+				ends[path[depth]] = count;
+				depth--;
+			}
+			for (int i = common; i < term.length(); i++) {
+				if (depth + 1 == path.length) {
+					int[] grown = new int[path.length * 2];
+					System.arraycopy(path, 0, grown, 0, path.length);
+					path = grown;
+				}
+				labels[count] = term.charAt(i);
+				path[++depth] = count++;
+			}
+			previous = term;
+		}
+		while (depth > 0) {
+			ends[path[depth]] = count;
+			depth--;
+		}
+		ends[0] = count;
+
+		// every node before the end of a word gets one more word before the
+		// next node, so fix the ranks by walking the words again.
+		fixRanks(terms, count);
+
+		if (count < capacity) {
+			labels = trim(labels, count);
+			ends = trim(ends, count);
+			ranks = trim(ranks, count + 1);
+		}
+	}
+
+	/**
+	 * Set ranks[n] to the number of words ending before node n in pre-order.
+	 *
+	 * @param terms
+	 *            is the words in sorted order.
+	 * @param count
+	 *            is the number of nodes.
+	 */
+	private void fixRanks(String[] terms, int count) {
+		// a node is the end of a word if the word is exactly its path, while
+		// building we only know the first word below every node.
+		boolean[] terminal = new boolean[count];
+		for (String term : terms) {
+			terminal[find(term)] = true;
+		}
+		int rank = 0;
+		for (int n = 0; n < count; n++) {
+			ranks[n] = rank;
+			if (terminal[n]) {
+				rank++;
+			}
+		}
+		ranks[count] = rank;
+	}
+
+
+	/**
+	 * @param array
+	 *            is the array to cut.
+	 * @param length
+	 *            is the new length.
+	 * @return a copy with the new length.
+	 */
+	private static char[] trim(char[] array, int length) {
+		char[] trimmed = new char[length];
+		System.arraycopy(array, 0, trimmed, 0, length);
+		return trimmed;
+	}
+
+	/**
+	 * @param array
+	 *            is the array to cut.
+	 * @param length
+	 *            is the new length.
+	 * @return a copy with the new length.
+	 */
+	private static int[] trim(int[] array, int length) {
+		int[] trimmed = new int[length];
+		System.arraycopy(array, 0, trimmed, 0, length);
+		return trimmed;
+	}
+
+	/**
+	 * @return the number of words.
+	 */
+	public int size() {
+		return ranks[labels.length];
+	}
+
+	/**
+	 * Find the node of a prefix by walking down the trie along it.
+	 *
+	 * @param prefix
+	 *            is the prefix.
+	 * @return the node, or -1 if no word starts with the prefix.
+	 */
+	public int find(String prefix) {
+		int node = 0;
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = prefix.charAt(i);
+			int child = node + 1;
+			while (child < ends[node] && labels[child] != c) {
+				child = ends[child];
+			}
+			if (child >= ends[node]) {
+				return -1;
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/**
+	 * @param node
+	 *            is a node from find.
+	 * @return the index of the first word under the node.
+	 */
+	public int getFirstTerm(int node) {
+		return ranks[node];
+	}
+
+	/**
+	 * @param node
+	 *            is a node from find.
+	 * @return the index after the last word under the node.
+	 */
+	public int getEndTerm(int node) {
+		return ranks[ends[node]];
+	}
+
+	/**
+	 * @param word
+	 *            is the word to find.
+	 * @return the index of the word, or -1 if it is not in the trie.
+	 */
+	public int indexOf(String word) {
+		int node = find(word);
+		if (node < 0 || ranks[node + 1] == ranks[node]) {
+			return -1;
+		}
+		return ranks[node];
+	}
+
+	/**
+	 * Build the word with the index by walking down the trie. It is slower
+	 * than an array of Strings, so it should only be used for printing or
+	 * merging.
+	 *
+	 * @param t
+	 *            is the index of word.
+	 * @return the word.
+	 */
+	public String getTerm(int t) {
+		StringBuilder builder = new StringBuilder();
+		int node = 0;
+		// stop at the node which is the end of word t.
+		while (ranks[node] != t || ranks[node + 1] == t) {
+			int child = node + 1;
+			while (ranks[ends[child]] <= t) {
+				child = ends[child];
+			}
+			builder.append(labels[child]);
+			node = child;
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Build all the words in one walk of the nodes in pre-order, which is
+	 * much faster than calling getTerm for every word.
+	 *
+	 * @return all the words in sorted order.
+	 */
+	public String[] getTerms() {
+		String[] terms = new String[size()];
+		// the chars and subtree ends of the nodes on current path.
+		char[] chars = new char[16];
+		int[] path = new int[16];
+		int depth = 0;
+		int t = 0;
+		if (ranks[1] > ranks[0]) {
+			terms[t++] = "";
+		}
+		for (int n = 1; n < labels.length; n++) {
+			while (depth > 0 && n >= path[depth - 1]) {
+				depth--;
+			}
+			if (depth == chars.length) {
+				char[] grownChars = new char[depth * 2];
+				System.arraycopy(chars, 0, grownChars, 0, depth);
+				chars = grownChars;
+				int[] grownPath = new int[depth * 2];
+				System.arraycopy(path, 0, grownPath, 0, depth);
+				path = grownPath;
+			}
+			chars[depth] = labels[n];
+			path[depth] = ends[n];
+			depth++;
+			if (ranks[n + 1] > ranks[n]) {
+				terms[t++] = new String(chars, 0, depth);
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Write the trie for an index file, so it could be searched without
+	 * building it again.
+	 *
+	 * @param out
+	 *            is the stream to write into.
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(labels.length);
+		for (char label : labels) {
+			out.writeChar(label);
+		}
+		for (int end : ends) {
+			out.writeInt(end);
+		}
+		for (int rank : ranks) {
+			out.writeInt(rank);
+		}
+	}
+}
@@ -0,0 +1,461 @@
+import java.nio.ByteBuffer;
+
+/**
+ * This class Tokenizer splits text into the words of the index. It is shared
+ * by the text files, the web pages and the queries, so a word typed in a
+ * query is always the same as the word indexed.
+ *
+ * A word is the chars between white-spaces, the same white-spaces as \s of
+ * regular expressions. The symbols in a word are removed and the letters are
+ * changed to lower case, so "Don't" is the word "dont", and a piece with only
+ * symbols is no word at all. This is the same as removing \W and _ from the
+ * lower case word, but the text is scanned only once and nothing is created
+ * for a word except the String of a new word.
+ *
+ * The chars of the current word are kept in a reused buffer. The String of a
+ * word is kept in a small cache, so the common words repeated in a document
+ * give the same String again instead of a new one.
+ *
+ * The text could also be the UTF-8 bytes of a file, then the bytes are
+ * scanned without decoding them into chars. An ASCII byte is looked up like
+ * an ASCII char. Out of ASCII only two letters become ASCII letters in lower
+ * case, so a byte out of ASCII is a symbol unless it starts one of those two
+ * letters. A word is only changed into chars when it is complete.
+ *
+ * A Tokenizer is not thread-safe, every thread uses its own. getLocal gives
+ * the Tokenizer of the current thread, so its buffers and cache of words are
+ * reused for all the files, pages and lines the thread splits.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class Tokenizer {
+
+	/**
+	 * The class of an ASCII char which separates words.
+	 */
+	private static final char SEPARATOR = 1;
+
+	/**
+	 * The class of a char which is removed from a word.
+	 */
+	private static final char SYMBOL = 0;
+
+	/**
+	 * The number of Strings in the cache of words, it must be a power of two.
+	 */
+	private static final int CACHE_SIZE = 1024;
+
+	/**
+	 * The lower case char of every ASCII letter and digit, SEPARATOR for the
+	 * white-spaces, and SYMBOL for the other chars.
+	 */
+	private static final char[] ASCII = new char[128];
+
+	static {
+		for (char c = 0; c < 128; c++) {
+			if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+				ASCII[c] = c;
+			} else if (c >= 'A' && c <= 'Z') {
+				ASCII[c] = (char) (c + 'a' - 'A');
+			} else if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B
+					|| c == '\f' || c == '\r') {
+				ASCII[c] = SEPARATOR;
+			} else {
+				ASCII[c] = SYMBOL;
+			}
+		}
+	}
+
+	/**
+	 * The chars of the text to split.
+	 */
+	private char[] input;
+
+	/**
+	 * The reused array which a String is copied into.
+	 */
+	private char[] copy;
+
+	/**
+	 * The UTF-8 bytes of the text, or null if the text is chars.
+	 */
+	private ByteBuffer bytes;
+
+	/**
+	 * The next char or byte to scan and the end of the text.
+	 */
+	private int next;
+	private int end;
+
+	/**
+	 * The start and end of the current word in the text, with its symbols.
+	 */
+	private int start;
+	private int stop;
+
+	/**
+	 * The chars of the current word, and their number.
+	 */
+	private char[] buffer;
+	private int length;
+
+	/**
+	 * The hash code of the current word, the same as the hash code of its
+	 * String.
+	 */
+	private int hash;
+
+	/**
+	 * The recent words by their hash code.
+	 */
+	private String[] cache;
+
+	/**
+	 * The Tokenizer of every thread.
+	 */
+	private static final ThreadLocal<Tokenizer> LOCAL = new ThreadLocal<Tokenizer>() {
+		@Override
+		protected Tokenizer initialValue() {
+			return new Tokenizer();
+		}
+	};
+
+	/**
+	 * @return the Tokenizer of the current thread, it must not be used again
+	 *         by the same thread before the current text is finished.
+	 */
+	public static Tokenizer getLocal() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * The constructor of Tokenizer.
+	 */
+	public Tokenizer() {
+		copy = new char[256];
+		buffer = new char[32];
+		cache = new String[CACHE_SIZE];
+	}
+
+	/**
+	 * Start splitting a new text.
+	 *
+	 * @param text
+	 *            is the text.
+	 */
+	public void reset(CharSequence text) {
+		int size = text.length();
+		if (size > copy.length) {
+			copy = new char[Math.max(size, copy.length * 2)];
+		}
+		if (text instanceof String) {
+			((String) text).getChars(0, size, copy, 0);
+		} else {
+			for (int i = 0; i < size; i++) {
+				copy[i] = text.charAt(i);
+			}
+		}
+		input = copy;
+		bytes = null;
+		next = 0;
+		end = size;
+	}
+
+	/**
+	 * Start splitting the chars of an array, they are not copied and must
+	 * not be changed while splitting.
+	 *
+	 * @param chars
+	 *            is the array.
+	 * @param offset
+	 *            is the first char of the text.
+	 * @param count
+	 *            is the number of chars of the text.
+	 */
+	public void reset(char[] chars, int offset, int count) {
+		input = chars;
+		bytes = null;
+		next = offset;
+		end = offset + count;
+	}
+
+	/**
+	 * Start splitting the UTF-8 bytes of a buffer, from its position to its
+	 * limit. The position of the buffer is not changed, and the bytes must
+	 * not be changed while splitting.
+	 *
+	 * @param buffer
+	 *            is the buffer, it could be mapped from a file.
+	 */
+	public void reset(ByteBuffer buffer) {
+		input = null;
+		bytes = buffer;
+		next = buffer.position();
+		end = buffer.limit();
+	}
+
+	/**
+	 * Move to the next word.
+	 *
+	 * @return true if there is one more word, false at the end of the text.
+	 */
+	public boolean next() {
+		if (bytes != null) {
+			return nextInBytes();
+		}
+		while (next < end) {
+			// skip the white-spaces before the word.
+			while (next < end && isSeparator(input[next])) {
+				next++;
+			}
+			start = next;
+			length = 0;
+			hash = 0;
+			while (next < end) {
+				char c = input[next];
+				char lower;
+				if (c < 128) {
+					lower = ASCII[c];
+					if (lower == SEPARATOR) {
+						break;
+					}
+				} else {
+					lower = lowerNonAscii(c);
+				}
+				next++;
+				if (lower != SYMBOL) {
+					append(lower);
+				}
+			}
+			stop = next;
+			if (length > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Move to the next word of the bytes.
+	 *
+	 * @return true if there is one more word, false at the end of the bytes.
+	 */
+	private boolean nextInBytes() {
+		while (next < end) {
+			// skip the white-spaces before the word.
+			while (next < end && isSeparator(bytes.get(next))) {
+				next++;
+			}
+			start = next;
+			length = 0;
+			hash = 0;
+			while (next < end) {
+				byte b = bytes.get(next);
+				char lower;
+				if (b >= 0) {
+					lower = ASCII[b];
+					if (lower == SEPARATOR) {
+						break;
+					}
+					next++;
+				} else if (b == (byte) 0xC4 && next + 1 < end
+						&& bytes.get(next + 1) == (byte) 0xB0) {
+					// the capital I with a dot.
+					lower = 'i';
+					next += 2;
+				} else if (b == (byte) 0xE2 && next + 2 < end
+						&& bytes.get(next + 1) == (byte) 0x84
+						&& bytes.get(next + 2) == (byte) 0xAA) {
+					// the Kelvin sign.
+					lower = 'k';
+					next += 3;
+				} else {
+					// the other bytes out of ASCII, even broken ones, are
+					// symbols.
+					lower = SYMBOL;
+					next++;
+				}
+				if (lower != SYMBOL) {
+					append(lower);
+				}
+			}
+			stop = next;
+			if (length > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Add a char to the current word.
+	 *
+	 * @param lower
+	 *            is the lower case char.
+	 */
+	private void append(char lower) {
+		if (length == buffer.length) {
+			char[] grown = new char[length * 2];
+			System.arraycopy(buffer, 0, grown, 0, length);
+			buffer = grown;
+		}
+		buffer[length++] = lower;
+		hash = 31 * hash + lower;
+	}
+
+	/**
+	 * Find where a part of the bytes could end without cutting a word, so
+	 * the parts could be split one by one.
+	 *
+	 * @param buffer
+	 *            is the UTF-8 bytes.
+	 * @param from
+	 *            is the start of the part.
+	 * @param to
+	 *            is the farthest end of the part.
+	 * @return the index after the last white-space before to, or to if there
+	 *         is no white-space in the part.
+	 */
+	public static int cutAfterSeparator(ByteBuffer buffer, int from, int to) {
+		int last = lastSeparator(buffer, from, to);
+		return last < 0 ? to : last + 1;
+	}
+
+	/**
+	 * @param buffer
+	 *            is the UTF-8 bytes.
+	 * @param from
+	 *            is the start of the part.
+	 * @param to
+	 *            is the end of the part.
+	 * @return the index of the last white-space in the part, or -1 if there
+	 *         is none.
+	 */
+	public static int lastSeparator(ByteBuffer buffer, int from, int to) {
+		for (int i = to - 1; i >= from; i--) {
+			if (isSeparator(buffer.get(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the chars of the current word, only the first length() of
+	 *         them. The array is reused for the next word.
+	 */
+	public char[] buffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return the number of chars of the current word.
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @return the start of the current word in the text, with its symbols.
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the end of the current word in the text, with its symbols.
+	 */
+	public int getEnd() {
+		return stop;
+	}
+
+	/**
+	 * @return the String of the current word, the same String is given again
+	 *         for a recent word.
+	 */
+	public String word() {
+		// mix the high bits in, because only the low bits choose the slot.
+		int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+		String cached = cache[slot];
+		if (cached != null && cached.length() == length) {
+			int i = 0;
+			while (i < length && cached.charAt(i) == buffer[i]) {
+				i++;
+			}
+			if (i == length) {
+				return cached;
+			}
+		}
+		String word = new String(buffer, 0, length);
+		cache[slot] = word;
+		return word;
+	}
+
+	/**
+	 * Remove the symbols and white-spaces of a word and change it to lower
+	 * case, the same as joining all the words found in it.
+	 *
+	 * @param word
+	 *            is the word typed or read.
+	 * @return the normalized word, empty if it has only symbols.
+	 */
+	public static String normalize(CharSequence word) {
+		StringBuilder builder = null;
+		int size = word.length();
+		for (int i = 0; i < size; i++) {
+			char c = word.charAt(i);
+			char lower = c < 128 ? ASCII[c] : lowerNonAscii(c);
+			if (lower == SEPARATOR) {
+				lower = SYMBOL;
+			}
+			// most words are already normalized, so no copy is made for them.
+			if (builder == null && (lower != c || lower == SYMBOL)) {
+				builder = new StringBuilder(size);
+				builder.append(word, 0, i);
+			}
+			if (builder != null && lower != SYMBOL) {
+				builder.append(lower);
+			}
+		}
+		return builder == null ? word.toString() : builder.toString();
+	}
+
+	/**
+	 * @param c
+	 *            is a char.
+	 * @return true if the char separates words.
+	 */
+	private static boolean isSeparator(char c) {
+		return c < 128 && ASCII[c] == SEPARATOR;
+	}
+
+	/**
+	 * @param b
+	 *            is a byte of UTF-8.
+	 * @return true if the byte separates words.
+	 */
+	private static boolean isSeparator(byte b) {
+		return b >= 0 && ASCII[b] == SEPARATOR;
+	}
+
+	/**
+	 * Only two chars out of ASCII become ASCII letters in lower case, all
+	 * the others are symbols like \W.
+	 *
+	 * @param c
+	 *            is a char out of ASCII.
+	 * @return the lower case ASCII letter, or SYMBOL.
+	 */
+	private static char lowerNonAscii(char c) {
+		if (c == '\u0130') {
+			// the capital I with a dot.
+			return 'i';
+		}
+		if (c == '\u212A') {
+			// the Kelvin sign.
+			return 'k';
+		}
+		return SYMBOL;
+	}
+}
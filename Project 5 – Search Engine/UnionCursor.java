@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * This class UnionCursor joins cursors by OR, a document matches if it
+ * matches any of them. It is used for the words of one prefix as well. The
+ * cursors are kept in a heap by their current document, so a document is
+ * found in O(log n) for n cursors. The positions of the cursors on current
+ * document are merged into one increasing order.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class UnionCursor extends DocCursor {
+
+	/**
+	 * The cursors which are not on the current document, the one with the
+	 * smallest document first.
+	 */
+	private PriorityQueue<DocCursor> heap;
+
+	/**
+	 * The cursors on the current document.
+	 */
+	private ArrayList<DocCursor> top;
+
+	/**
+	 * The current document, its frequency and first position.
+	 */
+	private int doc;
+	private int frequency;
+	private int position;
+
+	/**
+	 * The sum of the costs of all the cursors.
+	 */
+	private long cost;
+
+	/**
+	 * The next position of every cursor in top while merging the positions,
+	 * it has room for all the cursors so it is never grown.
+	 */
+	private int[] heads;
+
+	/**
+	 * True if the heads are read for current document.
+	 */
+	private boolean merging;
+
+	/**
+	 * The constructor of UnionCursor.
+	 *
+	 * @param cursors
+	 *            is the cursors to join, they must not be moved yet.
+	 */
+	public UnionCursor(ArrayList<? extends DocCursor> cursors) {
+		heap = new PriorityQueue<DocCursor>(Math.max(cursors.size(), 1),
+				new Comparator<DocCursor>() {
+					public int compare(DocCursor a, DocCursor b) {
+						int x = a.docId();
+						int y = b.docId();
+						return x < y ? -1 : x == y ? 0 : 1;
+					}
+				});
+		// all the cursors are before their first document, moving the top
+		// moves all of them.
+		top = new ArrayList<DocCursor>(cursors);
+		doc = -1;
+		cost = 0;
+		for (DocCursor cursor : cursors) {
+			cost += cursor.cost();
+		}
+		heads = new int[cursors.size()];
+		merging = false;
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int nextDoc() {
+		for (DocCursor cursor : top) {
+			if (cursor.nextDoc() != NO_MORE_DOCS) {
+				heap.add(cursor);
+			}
+		}
+		top.clear();
+		return collect();
+	}
+
+	@Override
+	public int advance(int target) {
+		for (DocCursor cursor : top) {
+			if (cursor.advance(target) != NO_MORE_DOCS) {
+				heap.add(cursor);
+			}
+		}
+		top.clear();
+		while (!heap.isEmpty() && heap.peek().docId() < target) {
+			DocCursor cursor = heap.poll();
+			if (cursor.advance(target) != NO_MORE_DOCS) {
+				heap.add(cursor);
+			}
+		}
+		return collect();
+	}
+
+	/**
+	 * Take all the cursors on the smallest document out of the heap.
+	 *
+	 * @return the new current document.
+	 */
+	private int collect() {
+		if (heap.isEmpty()) {
+			doc = NO_MORE_DOCS;
+			return doc;
+		}
+		doc = heap.peek().docId();
+		merging = false;
+		frequency = 0;
+		position = Integer.MAX_VALUE;
+		while (!heap.isEmpty() && heap.peek().docId() == doc) {
+			DocCursor cursor = heap.poll();
+			top.add(cursor);
+			frequency += cursor.frequency();
+			position = Math.min(position, cursor.firstPosition());
+		}
+		return doc;
+	}
+
+	@Override
+	public int frequency() {
+		return frequency;
+	}
+
+	@Override
+	public int firstPosition() {
+		return position;
+	}
+
+	@Override
+	public long cost() {
+		return cost;
+	}
+
+	@Override
+	public int nextPosition() {
+		if (!merging) {
+			for (int i = 0; i < top.size(); i++) {
+				heads[i] = top.get(i).nextPosition();
+			}
+			merging = true;
+		}
+		// only a few words share a prefix in one document, so a linear scan
+		// is enough to find the smallest.
+		int smallest = -1;
+		for (int i = 0; i < top.size(); i++) {
+			if (heads[i] != NO_MORE_POSITIONS
+					&& (smallest < 0 || heads[i] < heads[smallest])) {
+				smallest = i;
+			}
+		}
+		if (smallest < 0) {
+			return NO_MORE_POSITIONS;
+		}
+		int position = heads[smallest];
+		heads[smallest] = top.get(smallest).nextPosition();
+		return position;
+	}
+}
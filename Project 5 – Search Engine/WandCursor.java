@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+
+/**
+ * This class WandCursor finds the documents of any of the words like a
+ * UnionCursor, but it skips the documents which could not be good enough for
+ * the best k results. The score of a document is the sum of the frequencies
+ * of the words, so the biggest frequency of every PostingList is the most
+ * the word could add to any document.
+ *
+ * The cursors are kept in order of their current document. Adding the upper
+ * bounds from the first cursor, the first cursor where the sum reaches the
+ * threshold is the pivot. A document before the pivot document could only
+ * have the words of the cursors before the pivot, so it could never reach
+ * the threshold, and those cursors skip to the pivot document at once. This
+ * is the WAND (weak AND) algorithm.
+ *
+ * The biggest frequency of the whole list is often much more than most of its
+ * documents have, so every list also keeps the biggest frequency of every
+ * block of documents. If the blocks around the pivot document could not reach
+ * the threshold together, all the cursors skip to the end of the first of
+ * those blocks without scoring anything. This is Block-Max WAND.
+ *
+ * The threshold is the frequency of the worst of the best k results found so
+ * far. A document with the same frequency could still be better by its
+ * position, so only the documents whose upper bound is less than the
+ * threshold are skipped, and the results are the same as without skipping.
+ *
+ * @author ANG ZHANG
+ *
+ */
+public class WandCursor extends DocCursor {
+
+	/**
+	 * The cursors of the words in order of their current document.
+	 */
+	private TermCursor[] cursors;
+
+	/**
+	 * The biggest frequency of every cursor, in the same order.
+	 */
+	private int[] bounds;
+
+	/**
+	 * The lowest score of a document which could be a result.
+	 */
+	private int threshold;
+
+	/**
+	 * The current document, its frequency and first position.
+	 */
+	private int doc;
+	private int frequency;
+	private int first;
+
+	/**
+	 * The constructor of WandCursor.
+	 *
+	 * @param list
+	 *            is the cursors of the words, they must not be moved yet.
+	 */
+	public WandCursor(ArrayList<TermCursor> list) {
+		cursors = list.toArray(new TermCursor[list.size()]);
+		bounds = new int[cursors.length];
+		for (int i = 0; i < cursors.length; i++) {
+			bounds[i] = cursors[i].maxFrequency();
+			cursors[i].nextDoc();
+		}
+		sort();
+		threshold = 0;
+		doc = -1;
+	}
+
+	/**
+	 * Set the lowest score of a document which could be a result, it should
+	 * only grow.
+	 *
+	 * @param threshold
+	 *            is the frequency of the worst result kept.
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	@Override
+	public int docId() {
+		return doc;
+	}
+
+	@Override
+	public int nextDoc() {
+		// move the cursors of the current document first.
+		for (int i = 0; i < cursors.length && cursors[i].docId() == doc; i++) {
+			cursors[i].nextDoc();
+		}
+		sort();
+
+		while (true) {
+			int pivot = findPivot();
+			if (pivot < 0) {
+				doc = NO_MORE_DOCS;
+				return doc;
+			}
+			int target = cursors[pivot].docId();
+			// the cursors on the same document are counted with the pivot.
+			while (pivot + 1 < cursors.length
+					&& cursors[pivot + 1].docId() == target) {
+				pivot++;
+			}
+
+			long blockSum = 0;
+			for (int i = 0; i <= pivot; i++) {
+				blockSum += cursors[i].blockMaxFrequency(target);
+			}
+			int next;
+			if (blockSum >= threshold) {
+				if (cursors[0].docId() == target) {
+					// all the cursors before the pivot are on the document.
+					return score(target);
+				}
+				// the documents before the target could not reach the
+				// threshold.
+				next = target;
+			} else {
+				// no document could reach the threshold until one of the
+				// blocks ends or the cursor after the pivot is reached.
+				next = pivot + 1 < cursors.length ? cursors[pivot + 1].docId()
+						: NO_MORE_DOCS;
+				for (int i = 0; i <= pivot; i++) {
+					// a list with no document left has no block to end.
+					int last = cursors[i].blockLastDoc();
+					if (last != NO_MORE_DOCS) {
+						next = Math.min(next, last + 1);
+					}
+				}
+			}
+			for (int i = 0; i <= pivot; i++) {
+				if (cursors[i].docId() < next) {
+					cursors[i].advance(next);
+				}
+			}
+			sort();
+		}
+	}
+
+	/**
+	 * @return the index of the first cursor where the sum of the upper bounds
+	 *         reaches the threshold, or -1 if no document could reach it.
+	 */
+	private int findPivot() {
+		long sum = 0;
+		for (int i = 0; i < cursors.length; i++) {
+			if (cursors[i].docId() == NO_MORE_DOCS) {
+				return -1;
+			}
+			sum += bounds[i];
+			if (sum >= threshold) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Add up the frequency and first position of all the cursors on the
+	 * document, they are the first ones in the order.
+	 *
+	 * @param target
+	 *            is the document.
+	 * @return the document.
+	 */
+	private int score(int target) {
+		doc = target;
+		frequency = 0;
+		first = Integer.MAX_VALUE;
+		for (int i = 0; i < cursors.length && cursors[i].docId() == target; i++) {
+			frequency += cursors[i].frequency();
+			first = Math.min(first, cursors[i].firstPosition());
+		}
+		return doc;
+	}
+
+	/**
+	 * Sort the cursors by their current document again after some of them
+	 * moved. Only the first cursors move, so each of them is moved back to
+	 * its place like insertion sort, starting from the end.
+	 */
+	private void sort() {
+		for (int i = cursors.length - 2; i >= 0; i--) {
+			if (cursors[i].docId() > cursors[i + 1].docId()) {
+				moveBack(i);
+			}
+		}
+	}
+
+	/**
+	 * Move one cursor back to its place, the cursors after it are in order.
+	 *
+	 * @param i
+	 *            is the index of the cursor.
+	 */
+	private void moveBack(int i) {
+		TermCursor cursor = cursors[i];
+		int bound = bounds[i];
+		int docId = cursor.docId();
+		int j = i;
+		while (j + 1 < cursors.length && cursors[j + 1].docId() < docId) {
+			cursors[j] = cursors[j + 1];
+			bounds[j] = bounds[j + 1];
+			j++;
+		}
+		cursors[j] = cursor;
+		bounds[j] = bound;
+	}
+
+	@Override
+	public int frequency() {
+		return frequency;
+	}
+
+	@Override
+	public int firstPosition() {
+		return first;
+	}
+
+	@Override
+	public long cost() {
+		long cost = 0;
+		for (TermCursor cursor : cursors) {
+			cost += cursor.cost();
+		}
+		return cost;
+	}
+}
@@ -46,6 +46,15 @@ public class WorkQueue {
 
 	}
 
+	/**
+	 * Returns the number of worker threads.
+	 * 
+	 * @return number of worker threads
+	 */
+	public int size() {
+		return workers.length;
+	}
+
 	/**
 	 * Adds work to the work queue to be executed by the next available worker
 	 * thread. Note that this method is not synchronized! Do you understand why?